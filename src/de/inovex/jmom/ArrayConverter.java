@@ -70,14 +70,15 @@ class ArrayConverter implements Converter {
 		// Create a new array with the given size for the given type.
 		Object array = Array.newInstance(componentType, arraySize);
 		
+		// Decode the array objects
+		List<?> elements = (dblist instanceof List<?>) ? (List<?>)dblist : new ArrayList<Object>(dblist);
+		List<Object> decoded = objectConverter.decodeElements(elements, componentType);
+		
 		int i = 0;
-		for(Object ob : dblist) {
-
-			// Decode the array object
-			ob = objectConverter.decode(ob, componentType, null);
+		for(Object ob : decoded) {
 			
 			// Check if object matches component object of array, if not skip this object
-			if(!ReflectionUtil.getBoxedType(componentType).isAssignableFrom(ob.getClass())) 
+			if(ob == null || !ReflectionUtil.getBoxedType(componentType).isAssignableFrom(ob.getClass())) 
 				continue;
 			
 			// Set the specific array element
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import de.inovex.jmom.annotations.Reference;
+import de.inovex.jmom.exception.DeserializationException;
+import de.inovex.jmom.exception.SerializationException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+
+/**
+ * A {@code ClassCodec} encodes and decodes the objects of a single class.
+ * Everything, that only depends on the class (the persisted fields, their
+ * accessibility, the {@link Converter} for each field and the constructor),
+ * is looked up once when the codec is created. This includes the
+ * {@link Reference.Cascade} of each field. Encoding and decoding an
+ * object then only needs to loop over the fields.
+ *
+ * If the codec is specialized, every field of primitive type gets its own
+ * codec, that reads and writes the field with the primitive accessors of
+ * {@link Field} and decodes the value with the matching method of the
+ * {@link PrimitiveConverter}, so the value is never boxed on decoding.
+ * All other fields (and static primitive fields) use the reflective path.
+ *
+ * If the class has a {@link GeneratedCodec}, its fields are read and written
+ * by the generated code and new objects are created by it. Only fields, that
+ * the generated code cannot access, use reflection.
+ *
+ * @see ClassConverter
+ * @see Config#getSpecializedCodecsEnabled()
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+class ClassCodec<T> {
+
+	private final Class<T> clazz;
+	private final Constructor<T> constructor;
+	private final GeneratedCodec<T> generated;
+	private final FieldCodec[] fields;
+
+	ClassCodec(Class<T> clazz, ObjectConverter objectConverter, boolean specialized) {
+
+		this.clazz = clazz;
+		this.constructor = getDefaultConstructor(clazz);
+		this.generated = CodecRegistry.get(clazz);
+
+		// The FieldList of a class with generated codec is in the order of the codec's indices.
+		FieldList fieldList = FieldList.valueOf(clazz);
+		this.fields = new FieldCodec[fieldList.size()];
+		int i = 0;
+		for(Field field : fieldList) {
+			field.setAccessible(true);
+			Converter converter = objectConverter.forCascade(getCascade(field)).getConverter(field.getType());
+			FieldCodec fc = null;
+			if(specialized) {
+				fc = createPrimitiveCodec(field, objectConverter.getPrimitiveConverter());
+			}
+			if(fc == null && generated != null && generated.isAccessible(i)) {
+				fc = new GeneratedFieldCodec(field, converter, generated, i);
+			}
+			if(fc == null) {
+				fc = new ReflectiveFieldCodec(field, converter);
+			}
+			fields[i++] = fc;
+		}
+
+	}
+
+	/**
+	 * Encode an object of this codec's class to a {@link DBObject}.
+	 *
+	 * @param obj The object to encode.
+	 * @return The encoded object.
+	 *
+	 * @throws SerializationException In case the object could not be converted
+	 *		to a {@link DBObject}.
+	 */
+	DBObject encode(Object obj) {
+
+		DBObject dbobj = new BasicDBObject(fields.length);
+
+		for(FieldCodec fc : fields) {
+			try {
+				fc.encode(obj, dbobj);
+			} catch (IllegalAccessException ex) {
+				// Cannot happen, the field has been made accessible
+				throw new SerializationException(String.format("Cannot access field %s in class %s. "
+						+ "This should never happen!", fc.name,
+						fc.field.getDeclaringClass().getName()), ex);
+			}
+		}
+
+		return dbobj;
+
+	}
+
+	/**
+	 * Decode a {@link DBObject} to a new object of this codec's class.
+	 *
+	 * @param dbobj The {@link DBObject} to decode.
+	 * @return The decoded object.
+	 *
+	 * @throws DeserializationException If the {@link DBObject} cannot be
+	 *		transformed to an object of this codec's class.
+	 */
+	T decode(DBObject dbobj) {
+
+		T obj = newInstance();
+
+		for(FieldCodec fc : fields) {
+
+			Object dbval = dbobj.get(fc.name);
+			if(dbval == null) {
+				continue;
+			}
+
+			try {
+				fc.decode(dbval, obj);
+			} catch (IllegalAccessException ex) {
+				throw new DeserializationException(String.format("Cannot write to field %s in class %s. "
+						+ "This should never happen!", fc.name,
+						fc.field.getDeclaringClass().getName()), ex);
+			}
+
+		}
+
+		return obj;
+
+	}
+
+	/**
+	 * Create a new instance of this codec's class.
+	 */
+	private T newInstance() {
+
+		if(generated != null) {
+			T obj;
+			try {
+				obj = generated.newInstance();
+			} catch (RuntimeException ex) {
+				throw new DeserializationException(String.format("The default constructor "
+						+ "of class %s threw an exception.", clazz.getName()), ex);
+			}
+			if(obj != null) {
+				return obj;
+			}
+		}
+
+		if(constructor == null) {
+			throw new DeserializationException(String.format("Cannot instantiate an "
+					+ "object of class %s. Might the default contructor be missing?",
+					clazz.getName()));
+		}
+
+		try {
+			return constructor.newInstance();
+		} catch (InstantiationException ex) {
+			throw new DeserializationException(String.format("Cannot instantiate an "
+					+ "object of class %s. Might the class be abstract?", clazz.getName()), ex);
+		} catch (IllegalAccessException ex) {
+			// Cannot happen, the constructor has been made accessible
+			throw new DeserializationException(String.format("Cannot access the default "
+					+ "constructor of class %s.", clazz.getName()), ex);
+		} catch (InvocationTargetException ex) {
+			throw new DeserializationException(String.format("The default constructor "
+					+ "of class %s threw an exception.", clazz.getName()), ex.getCause());
+		}
+
+	}
+
+	/**
+	 * Returns the accessible default constructor of a class or {@code null}
+	 * if the class has none. Classes without default constructor can still
+	 * be encoded, so this won't fail before the first decoding.
+	 */
+	private static <T> Constructor<T> getDefaultConstructor(Class<T> clazz) {
+		try {
+			Constructor<T> c = clazz.getDeclaredConstructor();
+			c.setAccessible(true);
+			return c;
+		} catch (NoSuchMethodException ex) {
+			return null;
+		} catch (SecurityException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the cascade of a field, as set by its {@link Reference} annotation.
+	 */
+	private static Reference.Cascade getCascade(Field field) {
+		Reference ref = field.getAnnotation(Reference.class);
+		return (ref != null) ? ref.cascade() : Reference.Cascade.SAVE;
+	}
+
+	/**
+	 * Returns the specialized codec for a field of primitive type or {@code null}
+	 * if the field must use the reflective path.
+	 */
+	private static FieldCodec createPrimitiveCodec(Field field, PrimitiveConverter converter) {
+
+		Class<?> type = field.getType();
+
+		if(!type.isPrimitive() || Modifier.isStatic(field.getModifiers())) {
+			return null;
+		}
+
+		if(type == Integer.TYPE) {
+			return new IntFieldCodec(field, converter);
+		} else if(type == Long.TYPE) {
+			return new LongFieldCodec(field, converter);
+		} else if(type == Double.TYPE) {
+			return new DoubleFieldCodec(field, converter);
+		} else if(type == Boolean.TYPE) {
+			return new BooleanFieldCodec(field);
+		} else if(type == Float.TYPE) {
+			return new FloatFieldCodec(field, converter);
+		} else if(type == Short.TYPE) {
+			return new ShortFieldCodec(field, converter);
+		} else if(type == Byte.TYPE) {
+			return new ByteFieldCodec(field, converter);
+		} else if(type == Character.TYPE) {
+			return new CharFieldCodec(field, converter);
+		}
+
+		return null;
+
+	}
+
+	/**
+	 * Encodes and decodes a single field. The field must already be accessible.
+	 */
+	private abstract static class FieldCodec {
+
+		final Field field;
+		final String name;
+
+		FieldCodec(Field field) {
+			this.field = field;
+			this.name = field.getName();
+		}
+
+		/**
+		 * Reads the field from the object and puts the encoded value into the
+		 * {@link DBObject}, unless it is {@code null}.
+		 */
+		abstract void encode(Object obj, DBObject dbobj) throws IllegalAccessException;
+
+		/**
+		 * Decodes the (non {@code null}) database value and writes it to the
+		 * field of the object.
+		 */
+		abstract void decode(Object dbval, Object obj) throws IllegalAccessException;
+
+	}
+
+	/**
+	 * Converts a field with the {@link Converter} for its type and accesses
+	 * it via {@link Field#get(java.lang.Object)} and {@link Field#set(java.lang.Object, java.lang.Object)}.
+	 */
+	private static class ReflectiveFieldCodec extends FieldCodec {
+
+		private final Class<?> type;
+		private final Converter converter;
+
+		ReflectiveFieldCodec(Field field, Converter converter) {
+			super(field);
+			this.type = field.getType();
+			this.converter = converter;
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) throws IllegalAccessException {
+
+			Object fieldval;
+
+			try {
+				fieldval = field.get(obj);
+			} catch (IllegalArgumentException ex) {
+				throw new SerializationException(String.format("Cannot get value from "
+						+ "field %s in class %s.", name, field.getDeclaringClass().getName()), ex);
+			}
+
+			if(fieldval != null) {
+				Object encodedVal = converter.encode(fieldval, type, field);
+				if(encodedVal != null)
+					dbobj.put(name, encodedVal);
+			}
+
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) throws IllegalAccessException {
+
+			Object val = converter.decode(dbval, type, field);
+			if(val == null) {
+				return;
+			}
+
+			try {
+				field.set(obj, val);
+			} catch (IllegalArgumentException ex) {
+				throw new DeserializationException(String.format("Cannot write %s [%s] to field %s in class %s. ",
+					val, val.getClass().getName(), name, field.getDeclaringClass().getName()), ex);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Converts a field with the {@link Converter} for its type and accesses
+	 * it via the {@link GeneratedCodec} of the class.
+	 */
+	private static class GeneratedFieldCodec extends FieldCodec {
+
+		private final Class<?> type;
+		private final Converter converter;
+		private final GeneratedCodec<?> codec;
+		private final int index;
+
+		GeneratedFieldCodec(Field field, Converter converter, GeneratedCodec<?> codec, int index) {
+			super(field);
+			this.type = field.getType();
+			this.converter = converter;
+			this.codec = codec;
+			this.index = index;
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) {
+			Object fieldval = codec.get(obj, index);
+			if(fieldval != null) {
+				Object encodedVal = converter.encode(fieldval, type, field);
+				if(encodedVal != null)
+					dbobj.put(name, encodedVal);
+			}
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) {
+
+			Object val = converter.decode(dbval, type, field);
+			if(val == null) {
+				return;
+			}
+
+			try {
+				codec.set(obj, index, val);
+			} catch (ClassCastException ex) {
+				throw new DeserializationException(String.format("Cannot write %s [%s] to field %s in class %s. ",
+					val, val.getClass().getName(), name, field.getDeclaringClass().getName()), ex);
+			}
+
+		}
+
+	}
+
+	/*
+	 * Specialized codecs for the primitive types. Primitive values are stored
+	 * as they are, so encoding only needs to read the field.
+	 */
+
+	private static class IntFieldCodec extends FieldCodec {
+
+		private final PrimitiveConverter converter;
+
+		IntFieldCodec(Field field, PrimitiveConverter converter) {
+			super(field);
+			this.converter = converter;
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) throws IllegalAccessException {
+			dbobj.put(name, field.getInt(obj));
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) throws IllegalAccessException {
+			field.setInt(obj, converter.decodeInt(dbval));
+		}
+
+	}
+
+	private static class LongFieldCodec extends FieldCodec {
+
+		private final PrimitiveConverter converter;
+
+		LongFieldCodec(Field field, PrimitiveConverter converter) {
+			super(field);
+			this.converter = converter;
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) throws IllegalAccessException {
+			dbobj.put(name, field.getLong(obj));
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) throws IllegalAccessException {
+			field.setLong(obj, converter.decodeLong(dbval));
+		}
+
+	}
+
+	private static class DoubleFieldCodec extends FieldCodec {
+
+		private final PrimitiveConverter converter;
+
+		DoubleFieldCodec(Field field, PrimitiveConverter converter) {
+			super(field);
+			this.converter = converter;
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) throws IllegalAccessException {
+			dbobj.put(name, field.getDouble(obj));
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) throws IllegalAccessException {
+			field.setDouble(obj, converter.decodeDouble(dbval));
+		}
+
+	}
+
+	private static class FloatFieldCodec extends FieldCodec {
+
+		private final PrimitiveConverter converter;
+
+		FloatFieldCodec(Field field, PrimitiveConverter converter) {
+			super(field);
+			this.converter = converter;
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) throws IllegalAccessException {
+			dbobj.put(name, field.getFloat(obj));
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) throws IllegalAccessException {
+			field.setFloat(obj, converter.decodeFloat(dbval));
+		}
+
+	}
+
+	private static class ShortFieldCodec extends FieldCodec {
+
+		private final PrimitiveConverter converter;
+
+		ShortFieldCodec(Field field, PrimitiveConverter converter) {
+			super(field);
+			this.converter = converter;
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) throws IllegalAccessException {
+			dbobj.put(name, field.getShort(obj));
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) throws IllegalAccessException {
+			field.setShort(obj, converter.decodeShort(dbval));
+		}
+
+	}
+
+	private static class ByteFieldCodec extends FieldCodec {
+
+		private final PrimitiveConverter converter;
+
+		ByteFieldCodec(Field field, PrimitiveConverter converter) {
+			super(field);
+			this.converter = converter;
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) throws IllegalAccessException {
+			dbobj.put(name, field.getByte(obj));
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) throws IllegalAccessException {
+			field.setByte(obj, converter.decodeByte(dbval));
+		}
+
+	}
+
+	private static class CharFieldCodec extends FieldCodec {
+
+		private final PrimitiveConverter converter;
+
+		CharFieldCodec(Field field, PrimitiveConverter converter) {
+			super(field);
+			this.converter = converter;
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) throws IllegalAccessException {
+			dbobj.put(name, field.getChar(obj));
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) throws IllegalAccessException {
+			Character val = converter.decodeChar(dbval);
+			if(val != null) {
+				field.setChar(obj, val);
+			}
+		}
+
+	}
+
+	private static class BooleanFieldCodec extends FieldCodec {
+
+		BooleanFieldCodec(Field field) {
+			super(field);
+		}
+
+		@Override
+		void encode(Object obj, DBObject dbobj) throws IllegalAccessException {
+			dbobj.put(name, field.getBoolean(obj));
+		}
+
+		@Override
+		void decode(Object dbval, Object obj) throws IllegalAccessException {
+			if(!(dbval instanceof Boolean)) {
+				throw new DeserializationException(String.format("Cannot write %s [%s] to field %s in class %s. ",
+					dbval, dbval.getClass().getName(), name, field.getDeclaringClass().getName()));
+			}
+			field.setBoolean(obj, (Boolean)dbval);
+		}
+
+	}
+
+}
@@ -15,13 +15,11 @@
  */
 package de.inovex.jmom;
 
-import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import de.inovex.jmom.exception.DeserializationException;
 import de.inovex.jmom.exception.SerializationException;
-import java.lang.reflect.Field;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class is responsible for the translation of Java objects to {@link DBObject DBObjects}.
@@ -30,9 +28,19 @@ import java.util.logging.Logger;
  */
 class ClassConverter {
 
+	private Storage storage;
 	private ObjectConverter fieldConverter;
 	
+	/**
+	 * Holds the {@link ClassCodec} for every class, that has been encoded
+	 * or decoded by this converter. Specialized codecs are held separately,
+	 * so the configuration can be changed at any time.
+	 */
+	private ConcurrentMap<Class<?>, ClassCodec<?>> codecs = new ConcurrentHashMap<Class<?>, ClassCodec<?>>();
+	private ConcurrentMap<Class<?>, ClassCodec<?>> specializedCodecs = new ConcurrentHashMap<Class<?>, ClassCodec<?>>();
+	
 	ClassConverter(Storage storage) {
+		this.storage = storage;
 		this.fieldConverter = new ObjectConverter(storage);
 	}
 	
@@ -47,39 +55,7 @@ class ClassConverter {
 	 *		to a {@link DBObject}.
 	 */
 	DBObject encode(Object obj) {
-		
-		// Find all fields in object
-		FieldList fields = FieldList.valueOf(obj.getClass());
-		
-		DBObject dbobj = new BasicDBObject(fields.size());
-		
-		for(Field field : fields) {
-			
-			Object fieldval = null;
-			
-			try {
-				
-				field.setAccessible(true);
-				fieldval = field.get(obj);
-				
-			} catch (IllegalArgumentException ex) {
-				throw new SerializationException(String.format("Cannot get value from "
-						+ "field %s in class %s.", field.getName(), field.getDeclaringClass().getName()), ex);
-			} catch (IllegalAccessException ex) {
-				// Cannot happen, we just made the field accessible
-				throw new SerializationException(String.format("Cannot access field %s in class %s. "
-						+ "This should never happen!", field.getName(), 
-						field.getDeclaringClass().getName()), ex);
-			}
-			
-			Object encodedVal = fieldConverter.encode(fieldval, field.getType(), field);
-			if(encodedVal != null)
-				dbobj.put(field.getName(), encodedVal);
-			
-		}
-		
-		return dbobj;
-		
+		return getCodec(obj.getClass()).encode(obj);
 	}
 	
 	/**
@@ -97,57 +73,37 @@ class ClassConverter {
 		
 		if(dbobj == null) return null;
 		
-		FieldList fields = FieldList.valueOf(clazz);	
-		
-		T obj = newInstance(clazz);
-
-		for(Field field : fields) {
-			
-			Object dbval = dbobj.get(field.getName());
-			Object val = fieldConverter.decode(dbval, field.getType(), field);
-			
-			if(val != null) {
-				field.setAccessible(true);
-				
-				try {
-					field.set(obj, val);
-				} catch (IllegalArgumentException ex) {
-					throw new DeserializationException(String.format("Cannot write %s [%s] to field %s in class %s. ",
-						val, val.getClass().getName(), field.getName(), field.getDeclaringClass().getName()), ex);
-				} catch (IllegalAccessException ex) {
-					throw new DeserializationException(String.format("Cannot write to field %s in class %s. "
-							+ "This should never happen!", field.getName(), 
-							field.getDeclaringClass().getName()), ex);
-				}
-			}
-			
-		}
+		return getCodec(clazz).decode(dbobj);
 		
-		return obj;
 	}
 	
 	/**
-	 * Create a new instance of the given {@link Class}.
+	 * Returns the {@link ClassCodec} for the given class. The codec will be
+	 * created the first time a class is used. If {@link Config#getSpecializedCodecsEnabled() specialized codecs}
+	 * are enabled, a specialized codec is returned.
 	 * 
-	 * @param clazz The {@link Class} from which a new instance should be created.
-	 * @return An instance of the given class.
+	 * @param clazz The class to get the codec for.
+	 * @return The codec for that class.
 	 */
-	private static <T> T newInstance(Class<T> clazz) {
+	<T> ClassCodec<T> getCodec(Class<T> clazz) {
 		
-		T obj = null;
-	
-		try {
-			// TODO: Guess the best matching constructor
-			obj = clazz.newInstance();
-		} catch (InstantiationException ex) {
-			throw new DeserializationException(String.format("Cannot instantiate an "
-					+ "object of class %s. Might the default contructor be missing?", 
-					clazz.getName()), ex);
-		} catch (IllegalAccessException ex) {
-			Logger.getLogger(ClassConverter.class.getName()).log(Level.SEVERE, null, ex);
+		boolean specialized = storage.getConfig().getSpecializedCodecsEnabled();
+		ConcurrentMap<Class<?>, ClassCodec<?>> codecs = specialized ? this.specializedCodecs : this.codecs;
+		
+		// Every class is only mapped to a codec for that class.
+		@SuppressWarnings("unchecked")
+		ClassCodec<T> codec = (ClassCodec<T>)codecs.get(clazz);
+		if(codec == null) {
+			// Two threads might create a codec at the same time, but only one will be kept.
+			codec = new ClassCodec<T>(clazz, fieldConverter, specialized);
+			@SuppressWarnings("unchecked")
+			ClassCodec<T> existing = (ClassCodec<T>)codecs.putIfAbsent(clazz, codec);
+			if(existing != null) {
+				codec = existing;
+			}
 		}
+		return codec;
 		
-		return obj;
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.annotations.GenerateCodec;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@code CodecRegistry} finds the {@link GeneratedCodec} of a class. Only
+ * classes annotated with {@link GenerateCodec} are looked up, the codec is
+ * loaded by its name (see {@link GeneratedCodec#getCodecName(java.lang.String)})
+ * from the class loader of the class.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+final class CodecRegistry {
+	
+	/**
+	 * Marks classes, for which no codec could be loaded.
+	 */
+	private static final Object MISSING = new Object();
+	
+	private static final ConcurrentMap<Class<?>, Object> codecs = new ConcurrentHashMap<Class<?>, Object>();
+	
+	/**
+	 * Returns the generated codec of a class.
+	 * 
+	 * @param clazz The class to get the codec for.
+	 * @return The generated codec or {@code null} if the class isn't annotated
+	 *		or no codec has been generated.
+	 */
+	static <T> GeneratedCodec<T> get(Class<T> clazz) {
+		
+		if(!clazz.isAnnotationPresent(GenerateCodec.class)) {
+			return null;
+		}
+		
+		Object codec = codecs.get(clazz);
+		if(codec == null) {
+			codec = load(clazz);
+			codecs.putIfAbsent(clazz, codec);
+		}
+		
+		if(codec == MISSING) {
+			return null;
+		}
+		
+		// load only returns codecs, whose type is the class itself.
+		@SuppressWarnings("unchecked")
+		GeneratedCodec<T> generated = (GeneratedCodec<T>)codec;
+		return generated;
+		
+	}
+	
+	private static Object load(Class<?> clazz) {
+		
+		String name = GeneratedCodec.getCodecName(clazz.getName());
+		
+		try {
+			Object codec = Class.forName(name, true, clazz.getClassLoader()).newInstance();
+			if(codec instanceof GeneratedCodec<?> && ((GeneratedCodec<?>)codec).getType() == clazz) {
+				return codec;
+			}
+			Logger.getLogger(CodecRegistry.class.getName()).log(Level.WARNING, 
+					"{0} is not a generated codec for class {1}.", new Object[] { name, clazz.getName() });
+		} catch (ClassNotFoundException ex) {
+			Logger.getLogger(CodecRegistry.class.getName()).log(Level.WARNING, 
+					"No generated codec found for class {0}. Has the annotation processor been run?", clazz.getName());
+		} catch (InstantiationException ex) {
+			Logger.getLogger(CodecRegistry.class.getName()).log(Level.WARNING, null, ex);
+		} catch (IllegalAccessException ex) {
+			Logger.getLogger(CodecRegistry.class.getName()).log(Level.WARNING, null, ex);
+		}
+		
+		return MISSING;
+		
+	}
+	
+	private CodecRegistry() { }
+	
+}
@@ -25,14 +25,11 @@ import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * The {@code CollectionConverter} is responsible for transforming {@link Collection Collections}
@@ -92,30 +89,14 @@ class CollectionConverter implements Converter {
 				list = (Collection<?>)instType.newInstance();
 			}
 		
-			List<FetchThread> childThreads = new LinkedList<FetchThread>();
-
-			for(final Object ob : dblist) {
-				
-				FetchThread t = new FetchThread(ob, componentType);
-				
-				if(objectConverter.getConfig().getMultithreadingEnabled()) {
-					t.start();
-				} else {
-					t.run();
-				}
-				
-				childThreads.add(t);
-				
-			}
-			
 			list.clear();
-			for(FetchThread t : childThreads) {
-					try {
-						t.join();
-						list.add(t.getResult());
-					} catch (InterruptedException ex) {
-						Logger.getLogger(CollectionConverter.class.getName()).log(Level.SEVERE, null, ex);
-					}
+			for(Object decObj : objectConverter.decodeElements(toList(dblist), componentType)) {
+				// Do a typecheck on the object to the type of the collection,
+				// if a collection type existed (no raw collection was used).
+				if(decObj != null && !ReflectionUtil.getBoxedType(componentType).isAssignableFrom(decObj.getClass())) {
+					decObj = null;
+				}
+				list.add(decObj);
 			}
 			
 			return list;
@@ -193,34 +174,22 @@ class CollectionConverter implements Converter {
 		
 	}
 	
-	private class FetchThread extends Thread {
-		
-		private Object ob;
-		private Class<?> componentType;
-		private Object result;
+	/**
+	 * Returns the given {@link Iterable} as a {@link List}. The MongoDB driver
+	 * returns lists for arrays, so this will only copy the elements in rare cases.
+	 */
+	private static List<?> toList(Iterable<?> iterable) {
 		
-		public FetchThread(Object ob, Class<?> componentType) {
-			this.ob = ob;
-			this.componentType = componentType;
+		if(iterable instanceof List<?>) {
+			return (List<?>)iterable;
 		}
 		
-		@Override
-		public synchronized void run() {
-			
-			Object decObj = objectConverter.decode(ob, componentType, null);
-
-			// Do a typecheck on the object to the type of the collection,
-			// if a collection type existed (no raw collection was used).
-			if(ReflectionUtil.getBoxedType(componentType).isAssignableFrom(decObj.getClass())) {
-				result = decObj;
-			}
-			
+		List<Object> list = new ArrayList<Object>();
+		for(Object obj : iterable) {
+			list.add(obj);
 		}
+		return list;
 		
-		public synchronized Object getResult() {
-			return result;
-		}
-
 	}
 	
 }
@@ -30,12 +30,36 @@ public class Config {
 	
 	public enum CharacterBehavior { FIRST_CHAR, EXCEPTION, ZERO_VALUE };
 	
+	public enum EvictionPolicy { LRU, TINY_LFU };
+	
 	private NumericBehavior numericBehavior = NumericBehavior.EXCEPTION;
 	
 	private CharacterBehavior characterBehavior = CharacterBehavior.EXCEPTION;
 	
 	private boolean multithreading;
 	
+	private int decodePoolSize = Runtime.getRuntime().availableProcessors();
+	
+	private int decodeChunkSize = 256;
+	
+	private int decodeThreshold = 512;
+	
+	private int cursorBatchSize = 1000;
+	
+	private boolean referencePrefetch;
+	
+	private int bulkWriteSize = 1000;
+	
+	private boolean specializedCodecs;
+	
+	private int documentCacheSize;
+	
+	private EvictionPolicy documentCachePolicy = EvictionPolicy.LRU;
+	
+	private long documentCacheTtl;
+	
+	private boolean dirtyTracking = true;
+	
 	/**
 	 * The {@link NumericBehavior} of the Storage sets the behavior, that should
 	 * be done, when the value in the numeric value in the database is too large
@@ -58,6 +82,142 @@ public class Config {
 	public boolean getMultithreadingEnabled() {
 		return multithreading;
 	}
+	
+	/**
+	 * If reference prefetching is enabled, all references of the objects, that
+	 * are loaded at once (e.g. by {@link Storage#findAll(java.lang.Class)}), will
+	 * be fetched with one query per collection, instead of one query per reference.
+	 * This is done for each level of references, before any object is decoded.
+	 * 
+	 * @return Whether references should be prefetched.
+	 */
+	public boolean getReferencePrefetchEnabled() {
+		return referencePrefetch;
+	}
+	
+	/**
+	 * The maximum number of objects, that are written to database with a single
+	 * operation by {@link Storage#saveMultiple(java.lang.Iterable)}.
+	 * 
+	 * @return The maximum number of objects per write.
+	 */
+	public int getBulkWriteSize() {
+		return bulkWriteSize;
+	}
+	
+	/**
+	 * If specialized codecs are enabled, fields of primitive type are read and
+	 * written with the primitive accessors of {@link java.lang.reflect.Field}
+	 * (like {@code getInt} and {@code setInt}) and decoded without boxing the
+	 * value. All other fields are still converted the reflective way.
+	 * 
+	 * @return Whether primitive fields should use specialized codecs.
+	 */
+	public boolean getSpecializedCodecsEnabled() {
+		return specializedCodecs;
+	}
+	
+	/**
+	 * The maximum number of documents, that are held in the document cache.
+	 * The document cache keeps documents read by {@link Storage#findByObjectId(java.lang.Class, org.bson.types.ObjectId)}
+	 * or by resolving references, so reading them again doesn't need a query.
+	 * Documents are removed from the cache, when their object is saved or 
+	 * deleted by the {@link Storage}. Changes made to the database by other 
+	 * clients won't be noticed, until the document expires (see {@link #getDocumentCacheTtl()}).
+	 * 
+	 * A size of 0 (the default) disables the document cache.
+	 * 
+	 * @return The maximum number of cached documents.
+	 */
+	public int getDocumentCacheSize() {
+		return documentCacheSize;
+	}
+	
+	/**
+	 * The {@link EvictionPolicy} decides, which document is removed from the 
+	 * document cache, when it is full. It can be one of the following values:
+	 * 
+	 * {@link EvictionPolicy#LRU} - Remove the least recently used document.
+	 * {@link EvictionPolicy#TINY_LFU} - Only replace the least recently used
+	 *		document, if the new document has been requested more often recently.
+	 *		This keeps frequently used documents in the cache, when many documents
+	 *		are only read once.
+	 * 
+	 * @return The eviction policy of the document cache.
+	 */
+	public EvictionPolicy getDocumentCachePolicy() {
+		return documentCachePolicy;
+	}
+	
+	/**
+	 * The time in milliseconds, after which a document in the document cache
+	 * expires and will be read from database again. A value of 0 (the default)
+	 * means documents never expire.
+	 * 
+	 * @return The time to live of cached documents in milliseconds.
+	 */
+	public long getDocumentCacheTtl() {
+		return documentCacheTtl;
+	}
+	
+	/**
+	 * If dirty tracking is enabled, the storage keeps a hash of every field
+	 * of the objects it has read or saved. Saving an already stored object
+	 * will then only write the fields, that have changed since, and won't
+	 * write anything, if no field has changed. Changes made to the database 
+	 * by other clients won't be noticed, so a field changed by another client
+	 * will only be overwritten, if it has been changed in the object too.
+	 * 
+	 * Dirty tracking is enabled by default.
+	 * 
+	 * @return Whether only changed fields should be written.
+	 */
+	public boolean getDirtyTrackingEnabled() {
+		return dirtyTracking;
+	}
+	
+	/**
+	 * The maximum number of threads, that are used to decode objects, if
+	 * multithreading is enabled. Defaults to the number of available processors.
+	 * 
+	 * @return The size of the decoding thread pool.
+	 */
+	public int getDecodePoolSize() {
+		return decodePoolSize;
+	}
+	
+	/**
+	 * The number of objects, that a single decoding thread will decode in one
+	 * piece, if multithreading is enabled.
+	 * 
+	 * @return The number of objects per decoding task.
+	 */
+	public int getDecodeChunkSize() {
+		return decodeChunkSize;
+	}
+	
+	/**
+	 * The minimum number of objects, that must be decoded at once, before
+	 * the work is distributed to several threads. Less objects will be decoded
+	 * on the calling thread, even if multithreading is enabled.
+	 * 
+	 * @return The minimum number of objects for multithreaded decoding.
+	 */
+	public int getDecodeThreshold() {
+		return decodeThreshold;
+	}
+	
+	/**
+	 * The number of objects, that an {@link ObjectCursor} reads and decodes
+	 * at once. Only one batch of objects is held in memory while iterating.
+	 * 
+	 * @see Storage#iterate(java.lang.Class) 
+	 * 
+	 * @return The number of objects per batch.
+	 */
+	public int getCursorBatchSize() {
+		return cursorBatchSize;
+	}
 
 	public void setCharacterBehavior(CharacterBehavior characterBehavior) {
 		this.characterBehavior = characterBehavior;
@@ -71,4 +231,129 @@ public class Config {
 		this.multithreading = multithreading;
 	}
 	
+	/**
+	 * @see #getReferencePrefetchEnabled() 
+	 * 
+	 * @param referencePrefetch Whether references should be prefetched.
+	 */
+	public void setReferencePrefetchEnabled(boolean referencePrefetch) {
+		this.referencePrefetch = referencePrefetch;
+	}
+	
+	/**
+	 * @see #getBulkWriteSize() 
+	 * 
+	 * @param bulkWriteSize The maximum number of objects per write.
+	 */
+	public void setBulkWriteSize(int bulkWriteSize) {
+		if(bulkWriteSize < 1) {
+			throw new IllegalArgumentException("bulkWriteSize must be at least 1.");
+		}
+		this.bulkWriteSize = bulkWriteSize;
+	}
+	
+	/**
+	 * @see #getSpecializedCodecsEnabled() 
+	 * 
+	 * @param specializedCodecs Whether primitive fields should use specialized codecs.
+	 */
+	public void setSpecializedCodecsEnabled(boolean specializedCodecs) {
+		this.specializedCodecs = specializedCodecs;
+	}
+	
+	/**
+	 * @see #getDocumentCacheSize() 
+	 * 
+	 * @param documentCacheSize The maximum number of cached documents or 0 
+	 *		to disable the document cache.
+	 */
+	public void setDocumentCacheSize(int documentCacheSize) {
+		if(documentCacheSize < 0) {
+			throw new IllegalArgumentException("documentCacheSize must not be negative.");
+		}
+		this.documentCacheSize = documentCacheSize;
+	}
+	
+	/**
+	 * @see #getDocumentCachePolicy() 
+	 * 
+	 * @param documentCachePolicy The eviction policy of the document cache.
+	 */
+	public void setDocumentCachePolicy(EvictionPolicy documentCachePolicy) {
+		if(documentCachePolicy == null) {
+			throw new IllegalArgumentException("documentCachePolicy is not allowed to be null.");
+		}
+		this.documentCachePolicy = documentCachePolicy;
+	}
+	
+	/**
+	 * @see #getDocumentCacheTtl() 
+	 * 
+	 * @param documentCacheTtl The time to live of cached documents in milliseconds
+	 *		or 0 if documents should never expire.
+	 */
+	public void setDocumentCacheTtl(long documentCacheTtl) {
+		if(documentCacheTtl < 0) {
+			throw new IllegalArgumentException("documentCacheTtl must not be negative.");
+		}
+		this.documentCacheTtl = documentCacheTtl;
+	}
+	
+	/**
+	 * @see #getDirtyTrackingEnabled() 
+	 * 
+	 * @param dirtyTracking Whether only changed fields should be written.
+	 */
+	public void setDirtyTrackingEnabled(boolean dirtyTracking) {
+		this.dirtyTracking = dirtyTracking;
+	}
+	
+	/**
+	 * Sets the size of the decoding thread pool. The pool will be resized,
+	 * the next time objects are decoded.
+	 * 
+	 * @see #getDecodePoolSize() 
+	 * 
+	 * @param decodePoolSize The maximum number of decoding threads.
+	 */
+	public void setDecodePoolSize(int decodePoolSize) {
+		if(decodePoolSize < 1) {
+			throw new IllegalArgumentException("decodePoolSize must be at least 1.");
+		}
+		this.decodePoolSize = decodePoolSize;
+	}
+	
+	/**
+	 * @see #getDecodeChunkSize() 
+	 * 
+	 * @param decodeChunkSize The number of objects per decoding task.
+	 */
+	public void setDecodeChunkSize(int decodeChunkSize) {
+		if(decodeChunkSize < 1) {
+			throw new IllegalArgumentException("decodeChunkSize must be at least 1.");
+		}
+		this.decodeChunkSize = decodeChunkSize;
+	}
+	
+	/**
+	 * @see #getDecodeThreshold() 
+	 * 
+	 * @param decodeThreshold The minimum number of objects for multithreaded decoding.
+	 */
+	public void setDecodeThreshold(int decodeThreshold) {
+		this.decodeThreshold = decodeThreshold;
+	}
+	
+	/**
+	 * @see #getCursorBatchSize() 
+	 * 
+	 * @param cursorBatchSize The number of objects per batch.
+	 */
+	public void setCursorBatchSize(int cursorBatchSize) {
+		if(cursorBatchSize < 1) {
+			throw new IllegalArgumentException("cursorBatchSize must be at least 1.");
+		}
+		this.cursorBatchSize = cursorBatchSize;
+	}
+	
 }
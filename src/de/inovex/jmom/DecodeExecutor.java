@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.exception.DeserializationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code DecodeExecutor} distributes decoding work of a {@link Storage} over
+ * a bounded pool of worker threads. The work is split into chunks of
+ * {@link Config#getDecodeChunkSize()} elements, so the number of threads and
+ * the number of queued tasks stay small, no matter how many objects are decoded.
+ * Work below {@link Config#getDecodeThreshold()} elements is done on the
+ * calling thread, since handing it over to another thread would cost more
+ * than it saves.
+ * 
+ * The executor is shared by all decoding of a storage, so a task running in
+ * the pool may itself distribute work to the pool (e.g. the elements of a
+ * collection inside an object). To prevent such nested tasks from waiting for
+ * each other, while all threads of the pool are blocked, a thread waiting for
+ * its chunks will decode every chunk itself, that hasn't been started by
+ * another thread yet.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+class DecodeExecutor {
+
+	/**
+	 * Idle worker threads will be terminated after this amount of seconds.
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 60L;
+
+	private static final AtomicInteger poolNumber = new AtomicInteger();
+
+	/**
+	 * A {@code Decoder} transforms a single element of the work, that has been
+	 * passed to {@link DecodeExecutor#decodeAll(java.util.List, de.inovex.jmom.DecodeExecutor.Decoder)}.
+	 */
+	static interface Decoder<S, T> {
+
+		/**
+		 * Decode a single element. This method might be called from several
+		 * threads at the same time.
+		 *
+		 * @param source The element to decode.
+		 * @return The decoded element.
+		 */
+		T decode(S source);
+
+	}
+
+	private final Config config;
+	private final ThreadPoolExecutor executor;
+
+	DecodeExecutor(Config config) {
+		this.config = config;
+		int poolSize = Math.max(1, config.getDecodePoolSize());
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new DecodeThreadFactory());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Decodes all elements of the given list with the given {@link Decoder}.
+	 * The returned list contains the decoded elements in the same order as
+	 * the source list. If the list is shorter than the configured threshold
+	 * all elements will be decoded on the calling thread. Otherwise it will be
+	 * split into chunks, that are decoded on the pool. The calling thread
+	 * decodes the first chunk itself, instead of idly waiting for the others.
+	 *
+	 * @param sources The elements to decode.
+	 * @param decoder The {@link Decoder} used for each element.
+	 * @return A list of all decoded elements.
+	 *
+	 * @throws DeserializationException If the calling thread has been interrupted
+	 *		while waiting for the result.
+	 */
+	<S, T> List<T> decodeAll(List<? extends S> sources, Decoder<S, T> decoder) {
+
+		resizePool();
+		
+		int size = sources.size();
+		int chunkSize = Math.max(1, config.getDecodeChunkSize());
+
+		if(size < config.getDecodeThreshold() || size <= chunkSize) {
+			return new DecodeChunk<S, T>(sources, decoder).call();
+		}
+
+		List<FutureTask<List<T>>> tasks = new ArrayList<FutureTask<List<T>>>(size / chunkSize + 1);
+
+		// Submit every chunk except the first, which is decoded on this thread.
+		for(int from = chunkSize; from < size; from += chunkSize) {
+			List<? extends S> chunk = sources.subList(from, Math.min(from + chunkSize, size));
+			FutureTask<List<T>> task = new FutureTask<List<T>>(new DecodeChunk<S, T>(chunk, decoder));
+			executor.execute(task);
+			tasks.add(task);
+		}
+
+		List<T> result = new ArrayList<T>(size);
+
+		try {
+			result.addAll(new DecodeChunk<S, T>(sources.subList(0, chunkSize), decoder).call());
+			for(FutureTask<List<T>> task : tasks) {
+				// Running a task, that has already been started by a pool thread,
+				// does nothing. Otherwise we take it over, instead of waiting for it.
+				task.run();
+				result.addAll(getResult(task));
+			}
+		} finally {
+			// If anything failed, don't let the remaining chunks run for nothing.
+			if(result.size() < size) {
+				for(FutureTask<List<T>> task : tasks) {
+					task.cancel(false);
+				}
+			}
+		}
+
+		return result;
+
+	}
+
+	/**
+	 * Adjusts the number of worker threads, if the pool size in the {@link Config}
+	 * has been changed since the last call.
+	 */
+	private synchronized void resizePool() {
+		int poolSize = Math.max(1, config.getDecodePoolSize());
+		if(poolSize > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(poolSize);
+			executor.setCorePoolSize(poolSize);
+		} else if(poolSize < executor.getMaximumPoolSize()) {
+			executor.setCorePoolSize(poolSize);
+			executor.setMaximumPoolSize(poolSize);
+		}
+	}
+
+	/**
+	 * Shuts the worker threads of this executor down. Work that has already
+	 * been submitted will still be finished.
+	 */
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Waits for the result of a {@link Future} and unwraps any exception,
+	 * that has been thrown while decoding.
+	 */
+	private static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new DeserializationException("Interrupted while waiting for decoding threads.", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if(cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new DeserializationException(cause);
+		}
+	}
+
+	/**
+	 * Decodes a consecutive part of the work.
+	 */
+	private static class DecodeChunk<S, T> implements Callable<List<T>> {
+
+		private final List<? extends S> sources;
+		private final Decoder<S, T> decoder;
+
+		DecodeChunk(List<? extends S> sources, Decoder<S, T> decoder) {
+			this.sources = sources;
+			this.decoder = decoder;
+		}
+
+		@Override
+		public List<T> call() {
+			List<T> result = new ArrayList<T>(sources.size());
+			for(S source : sources) {
+				result.add(decoder.decode(source));
+			}
+			return result;
+		}
+
+	}
+
+	/**
+	 * Creates named daemon threads, so that an unused {@link Storage} will
+	 * never prevent the JVM from exiting.
+	 */
+	private static class DecodeThreadFactory implements ThreadFactory {
+
+		private final int pool = poolNumber.incrementAndGet();
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, String.format("jmom-decode-%d-%d", pool, threadNumber.incrementAndGet()));
+			t.setDaemon(true);
+			return t;
+		}
+
+	}
+
+}
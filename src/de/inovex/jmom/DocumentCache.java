@@ -0,0 +1,487 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.DBObject;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The {@code DocumentCache} holds {@link DBObject DBObjects}, that have been
+ * read from database, by their collection and id. In contrast to the
+ * {@link Storage.Cache}, that maps ids to the objects in memory, this cache
+ * keeps documents, that are read again and again (like referenced configuration
+ * objects), so no query is needed to read them.
+ * 
+ * The cache is bounded by {@link Config#getDocumentCacheSize()}. It is split 
+ * into several segments, each an LRU list guarded by its own lock. If the 
+ * {@link Config.EvictionPolicy#TINY_LFU TinyLFU} policy is used, a 
+ * {@link FrequencySketch} counts how often each document has been requested, 
+ * and a new document only replaces the least recently used one, if it has 
+ * been requested more often.
+ * 
+ * The cache follows changes of the {@link Config} of its storage. Changing
+ * the size or the policy clears the cache.
+ * 
+ * A document might be changed, while it is read from database. To not cache
+ * the old document, a reader gets a {@link #getStamp() stamp} before the read
+ * and passes it to {@link #put(java.lang.String, com.mongodb.DBObject, long)}.
+ * Every invalidation remembers its sequence number in one of several stripes.
+ * A document is only cached, if its stripe hasn't been invalidated since the
+ * stamp has been taken. Other keys of the same stripe might prevent caching
+ * too, but an old document is never cached.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+class DocumentCache {
+	
+	/**
+	 * The maximum number of segments. Must be a power of two.
+	 */
+	private static final int MAX_SEGMENTS = 16;
+	
+	/**
+	 * The minimum number of documents per segment, so small caches aren't
+	 * split into segments, that can only hold a few documents.
+	 */
+	private static final int MIN_SEGMENT_SIZE = 16;
+	
+	/**
+	 * The number of stripes remembering the last invalidation. Must be a power of two.
+	 */
+	private static final int INVALIDATION_STRIPES = 256;
+	
+	private final Storage storage;
+	
+	/**
+	 * The current segments or {@code null} if the cache is disabled.
+	 */
+	private volatile Segment[] segments;
+	
+	/**
+	 * The frequency sketch, if the TinyLFU policy is used.
+	 */
+	private volatile FrequencySketch sketch;
+	
+	/*
+	 * The configuration the segments have been created for. Only changed
+	 * while holding the lock of this cache.
+	 */
+	private volatile int size;
+	private volatile Config.EvictionPolicy policy = Config.EvictionPolicy.LRU;
+	
+	/**
+	 * The sequence number of the last invalidation, and per stripe the sequence
+	 * number of the last invalidation of a key in this stripe.
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicLongArray invalidated = new AtomicLongArray(INVALIDATION_STRIPES);
+	
+	DocumentCache(Storage storage) {
+		this.storage = storage;
+	}
+	
+	/**
+	 * Returns the cached document with the given id or {@code null}, if it 
+	 * isn't cached or has expired.
+	 * 
+	 * @param collection The collection of the document.
+	 * @param id The id of the document.
+	 * @return The cached document or {@code null}.
+	 */
+	DBObject get(String collection, Object id) {
+		
+		Segment[] segs = getSegments();
+		if(segs == null) {
+			return null;
+		}
+		
+		Key key = new Key(collection, id);
+		FrequencySketch s = sketch;
+		if(s != null) {
+			s.increment(key);
+		}
+		
+		return segmentFor(segs, key).get(key);
+		
+	}
+	
+	/**
+	 * Returns the stamp, that must be taken before a document is read from
+	 * database, to {@link #put(java.lang.String, com.mongodb.DBObject, long) put}
+	 * it afterwards.
+	 * 
+	 * @return The current stamp.
+	 */
+	long getStamp() {
+		return sequence.get();
+	}
+	
+	/**
+	 * Stores a document, that has just been read from database. The returned
+	 * documents are shared, so the document must not be modified afterwards.
+	 * If the document might have been invalidated since the stamp has been 
+	 * taken, it isn't stored.
+	 * 
+	 * @param collection The collection of the document.
+	 * @param dbobj The document, containing its id.
+	 * @param stamp The {@link #getStamp() stamp} taken before the document has been read.
+	 */
+	void put(String collection, DBObject dbobj, long stamp) {
+		
+		Segment[] segs = getSegments();
+		Object id = dbobj.get(Storage.ID_FIELD);
+		if(segs == null || id == null) {
+			return;
+		}
+		
+		long ttl = storage.getConfig().getDocumentCacheTtl();
+		long expires = ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE;
+		
+		Key key = new Key(collection, id);
+		segmentFor(segs, key).put(key, new CachedDocument(dbobj, expires), sketch, 
+				invalidated, stripeFor(key), stamp);
+		
+	}
+	
+	/**
+	 * Removes a document from the cache, because it has been changed or deleted.
+	 * 
+	 * @param collection The collection of the document.
+	 * @param id The id of the document.
+	 */
+	void invalidate(String collection, Object id) {
+		if(id == null) {
+			return;
+		}
+		Key key = new Key(collection, id);
+		
+		// Remember the invalidation, before the document is removed, so a 
+		// concurrent put either sees it or is undone by the removal.
+		long seq = sequence.incrementAndGet();
+		int stripe = stripeFor(key);
+		long last = invalidated.get(stripe);
+		while(last < seq && !invalidated.compareAndSet(stripe, last, seq)) {
+			last = invalidated.get(stripe);
+		}
+		
+		Segment[] segs = segments;
+		if(segs != null) {
+			segmentFor(segs, key).remove(key);
+		}
+	}
+	
+	/**
+	 * Removes all documents from the cache.
+	 */
+	void clear() {
+		Segment[] segs = segments;
+		if(segs != null) {
+			for(Segment segment : segs) {
+				segment.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of cached documents, including expired ones, that
+	 * haven't been removed yet.
+	 */
+	int size() {
+		Segment[] segs = segments;
+		int count = 0;
+		if(segs != null) {
+			for(Segment segment : segs) {
+				count += segment.size();
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the segments for the current configuration. If the size or
+	 * the policy has been changed, new (empty) segments will be created.
+	 */
+	private Segment[] getSegments() {
+		Config config = storage.getConfig();
+		if(config.getDocumentCacheSize() != size || config.getDocumentCachePolicy() != policy) {
+			synchronized(this) {
+				if(config.getDocumentCacheSize() != size || config.getDocumentCachePolicy() != policy) {
+					configure(config.getDocumentCacheSize(), config.getDocumentCachePolicy());
+				}
+			}
+		}
+		return segments;
+	}
+	
+	private void configure(int size, Config.EvictionPolicy policy) {
+		
+		if(size == 0) {
+			segments = null;
+			sketch = null;
+		} else {
+			createSegments(size, policy);
+		}
+		
+		this.size = size;
+		this.policy = policy;
+		
+	}
+	
+	private void createSegments(int size, Config.EvictionPolicy policy) {
+		
+		int count = 1;
+		while(count < MAX_SEGMENTS && size / (count * 2) >= MIN_SEGMENT_SIZE) {
+			count *= 2;
+		}
+		
+		Segment[] segs = new Segment[count];
+		for(int i = 0; i < count; i++) {
+			// Spread the remainder over the first segments
+			segs[i] = new Segment(size / count + (i < size % count ? 1 : 0));
+		}
+		
+		sketch = policy == Config.EvictionPolicy.TINY_LFU ? new FrequencySketch(size) : null;
+		segments = segs;
+		
+	}
+	
+	private static Segment segmentFor(Segment[] segs, Key key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segs[h & (segs.length - 1)];
+	}
+	
+	private static int stripeFor(Key key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return h & (INVALIDATION_STRIPES - 1);
+	}
+	
+	/**
+	 * The key of a document: its collection and its id.
+	 */
+	static final class Key {
+		
+		private final String collection;
+		private final Object id;
+		private final int hash;
+
+		Key(String collection, Object id) {
+			this.collection = collection;
+			this.id = id;
+			this.hash = 31 * collection.hashCode() + id.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key)obj;
+			return hash == other.hash && id.equals(other.id) && collection.equals(other.collection);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+	}
+	
+	private static final class CachedDocument {
+		
+		private final DBObject dbobj;
+		private final long expires;
+
+		CachedDocument(DBObject dbobj, long expires) {
+			this.dbobj = dbobj;
+			this.expires = expires;
+		}
+		
+	}
+	
+	/**
+	 * A part of the cache holding at most {@code capacity} documents in 
+	 * LRU order.
+	 */
+	private static final class Segment {
+		
+		private final int capacity;
+		private final LinkedHashMap<Key, CachedDocument> documents;
+
+		Segment(int capacity) {
+			this.capacity = capacity;
+			this.documents = new LinkedHashMap<Key, CachedDocument>(16, 0.75f, true);
+		}
+		
+		synchronized DBObject get(Key key) {
+			CachedDocument doc = documents.get(key);
+			if(doc == null) {
+				return null;
+			}
+			if(doc.expires < System.currentTimeMillis()) {
+				documents.remove(key);
+				return null;
+			}
+			return doc.dbobj;
+		}
+		
+		/**
+		 * Stores a document, unless its stripe has been invalidated after the
+		 * stamp. If the segment is full, the least recently used document is 
+		 * removed. If a sketch is given, that will only be done, if the new 
+		 * document is used more frequently than the removed one.
+		 */
+		synchronized void put(Key key, CachedDocument doc, FrequencySketch sketch,
+				AtomicLongArray invalidated, int stripe, long stamp) {
+			
+			if(invalidated.get(stripe) > stamp) {
+				return;
+			}
+			
+			if(!documents.containsKey(key) && documents.size() >= capacity) {
+				Iterator<Map.Entry<Key, CachedDocument>> it = documents.entrySet().iterator();
+				Map.Entry<Key, CachedDocument> eldest = it.next();
+				boolean expired = eldest.getValue().expires < System.currentTimeMillis();
+				if(!expired && sketch != null && sketch.frequency(key) <= sketch.frequency(eldest.getKey())) {
+					return;
+				}
+				it.remove();
+			}
+			
+			documents.put(key, doc);
+			
+		}
+		
+		synchronized void remove(Key key) {
+			documents.remove(key);
+		}
+		
+		synchronized void clear() {
+			documents.clear();
+		}
+		
+		synchronized int size() {
+			return documents.size();
+		}
+		
+	}
+	
+	/**
+	 * A count-min sketch, that estimates how often each key has been requested
+	 * recently. Each key is counted in four 4-bit counters. The estimate is the
+	 * minimum of these counters. After a number of increments depending on
+	 * the cache size, all counters are halved, so old requests are forgotten.
+	 * 
+	 * The counters aren't synchronized. Concurrent increments might get lost,
+	 * which only makes the estimate a bit less exact.
+	 */
+	static final class FrequencySketch {
+		
+		private static final int[] SEEDS = { 0x97cb3127, 0xb2b2ae3d, 0x8a4e4b9b, 0x5bd1e995 };
+		private static final int MAX_COUNT = 15;
+		
+		/**
+		 * Every long holds 16 counters.
+		 */
+		private final long[] table;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int size) {
+			int length = 1;
+			while(length < Math.max(size / 4, 1)) {
+				length <<= 1;
+			}
+			this.table = new long[length];
+			this.sampleSize = Math.max(size, 1) * 10;
+		}
+		
+		/**
+		 * Counts a request for the given key.
+		 */
+		void increment(Object key) {
+			
+			int hash = spread(key.hashCode());
+			boolean added = false;
+			for(int i = 0; i < SEEDS.length; i++) {
+				int counter = counterFor(hash, i);
+				int index = counter >>> 4;
+				int shift = (counter & 15) << 2;
+				if(((table[index] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+					table[index] += 1L << shift;
+					added = true;
+				}
+			}
+			
+			if(added && ++additions >= sampleSize) {
+				reset();
+			}
+			
+		}
+		
+		/**
+		 * Returns the estimated number of recent requests for the given key.
+		 */
+		int frequency(Object key) {
+			int hash = spread(key.hashCode());
+			int frequency = MAX_COUNT;
+			for(int i = 0; i < SEEDS.length; i++) {
+				int counter = counterFor(hash, i);
+				int count = (int)((table[counter >>> 4] >>> ((counter & 15) << 2)) & MAX_COUNT);
+				frequency = Math.min(frequency, count);
+			}
+			return frequency;
+		}
+		
+		/**
+		 * Halves all counters.
+		 */
+		private void reset() {
+			for(int i = 0; i < table.length; i++) {
+				// Shift every 4-bit counter right by one and clear the bit moved in from the next counter
+				table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+			}
+			additions /= 2;
+		}
+		
+		/**
+		 * Returns the index of the i-th counter of a hash: the index of the long
+		 * in the upper bits and the counter inside the long in the lowest 4 bits.
+		 */
+		private int counterFor(int hash, int i) {
+			int h = (hash + SEEDS[i]) * SEEDS[i];
+			h += h >>> 16;
+			return h & ((table.length << 4) - 1);
+		}
+		
+		private static int spread(int h) {
+			h ^= (h >>> 17);
+			h *= 0xed5ad4bb;
+			h ^= (h >>> 11);
+			return h;
+		}
+		
+	}
+	
+}
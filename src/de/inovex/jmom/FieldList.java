@@ -15,12 +15,15 @@
  */
 package de.inovex.jmom;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
 import de.inovex.jmom.util.ReflectionUtil;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  *
@@ -28,29 +31,109 @@ import java.util.Map;
  */
 public class FieldList implements Iterable<Field> {
 	
-	private static Map<Class<?>, FieldList> cachedFieldLists = new HashMap<Class<?>, FieldList>();
+	private static ConcurrentMap<Class<?>, FieldList> cachedFieldLists = new ConcurrentHashMap<Class<?>, FieldList>();
 	
 	static FieldList valueOf(Class<?> clazz) {
 		FieldList fl = cachedFieldLists.get(clazz);
 		if(fl == null) {
 			fl = new FieldList(clazz);
-			cachedFieldLists.put(clazz, fl);
+			FieldList existing = cachedFieldLists.putIfAbsent(clazz, fl);
+			if(existing != null) {
+				fl = existing;
+			}
 		}
 		return fl;
 	}
 	
+	/**
+	 * Returns a {@code FieldList} containing only the given fields of a class.
+	 * The returned list won't be cached.
+	 * 
+	 * @param clazz The class the fields belong to.
+	 * @param fieldNames The names of the fields.
+	 * @return A {@code FieldList} with the given fields.
+	 * 
+	 * @throws IllegalArgumentException If the class has no persisted field
+	 *		with one of the given names.
+	 */
+	static FieldList valueOf(Class<?> clazz, String... fieldNames) {
+		
+		FieldList all = valueOf(clazz);
+		Collection<Field> fields = new ArrayList<Field>(fieldNames.length);
+		
+		for(String name : fieldNames) {
+			Field field = all.getField(name);
+			if(field == null) {
+				throw new IllegalArgumentException(String.format("Class %s has no persisted field %s.", 
+						clazz.getName(), name));
+			}
+			fields.add(field);
+		}
+		
+		return new FieldList(fields, clazz.getName());
+		
+	}
+	
 	private final Collection<Field> fields;
 	private final String className;
+	private DBObject projection;
 	
 	private FieldList(Class<?> clazz) {
-		this.fields = ReflectionUtil.getAllFields(clazz);
-		this.className = clazz.getName();
+		this(getPersistedFields(clazz), clazz.getName());
+	}
+	
+	/**
+	 * Returns the persisted fields of a class. If the class has a {@link GeneratedCodec},
+	 * the fields are taken from it, otherwise they are read with reflection.
+	 */
+	private static Collection<Field> getPersistedFields(Class<?> clazz) {
+		GeneratedCodec<?> codec = CodecRegistry.get(clazz);
+		return codec != null ? codec.getFields() : ReflectionUtil.getAllFields(clazz);
+	}
+	
+	private FieldList(Collection<Field> fields, String className) {
+		this.fields = fields;
+		this.className = className;
 	}
 	
 	public int size() {
 		return fields.size();
 	}
 	
+	/**
+	 * Returns the field with the given name or {@code null} if this list 
+	 * doesn't contain such a field.
+	 * 
+	 * @param name The name of the field.
+	 * @return The field with that name.
+	 */
+	Field getField(String name) {
+		for(Field field : fields) {
+			if(field.getName().equals(name)) {
+				return field;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns a projection, that can be passed to a query, so that only the
+	 * fields in this list (and the {@code _id} field) will be read from
+	 * database. The returned object is shared and must not be modified.
+	 * 
+	 * @return The projection for this {@code FieldList}.
+	 */
+	public DBObject getProjection() {
+		if(projection == null) {
+			DBObject proj = new BasicDBObject(Storage.ID_FIELD, 1);
+			for(Field field : fields) {
+				proj.put(field.getName(), 1);
+			}
+			projection = proj;
+		}
+		return projection;
+	}
+	
 	@Override
 	public Iterator<Field> iterator() {
 		return fields.iterator();
@@ -68,6 +151,9 @@ public class FieldList implements Iterable<Field> {
 		if ((this.className == null) ? (other.className != null) : !this.className.equals(other.className)) {
 			return false;
 		}
+		if (this.fields != other.fields && !this.fields.equals(other.fields)) {
+			return false;
+		}
 		return true;
 	}
 
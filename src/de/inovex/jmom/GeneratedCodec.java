@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.annotations.GenerateCodec;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The super class of all codecs, that are generated by the 
+ * {@link de.inovex.jmom.processor.CodecProcessor} for classes annotated with
+ * {@link GenerateCodec}. A generated codec knows the persisted fields of its
+ * class and can read and write them without reflection. You should never
+ * need to extend this class yourself.
+ * 
+ * The fields are addressed by their index. Fields, that aren't 
+ * {@link #isAccessible(int) accessible} for the generated code, must be
+ * read and written with reflection.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public abstract class GeneratedCodec<T> {
+	
+	/**
+	 * The suffix appended to the name of a class to get the name of its
+	 * generated codec.
+	 */
+	private static final String CODEC_SUFFIX = "_JmomCodec";
+	
+	/**
+	 * Returns the fully qualified name of the generated codec for a class.
+	 * The codec is placed in the same package. For nested classes the 
+	 * {@code $} in the binary name is replaced by an {@code _}.
+	 * 
+	 * @param binaryName The binary name of the class (e.g. {@code foo.Outer$Inner}).
+	 * @return The fully qualified name of the codec (e.g. {@code foo.Outer_Inner_JmomCodec}).
+	 */
+	public static String getCodecName(String binaryName) {
+		int pkgEnd = binaryName.lastIndexOf('.') + 1;
+		return binaryName.substring(0, pkgEnd) 
+				+ binaryName.substring(pkgEnd).replace('$', '_') + CODEC_SUFFIX;
+	}
+	
+	private final Class<T> type;
+	private final Class<?>[] declaringClasses;
+	private final String[] fieldNames;
+	private final boolean[] accessible;
+	
+	private volatile Collection<Field> fields;
+
+	/**
+	 * Creates a new codec. All arrays must have one element for each persisted
+	 * field of the class in the same order.
+	 * 
+	 * @param type The class this codec is for.
+	 * @param declaringClasses The class declaring each field.
+	 * @param fieldNames The name of each field.
+	 * @param accessible Whether the generated code can read and write each field.
+	 */
+	protected GeneratedCodec(Class<T> type, Class<?>[] declaringClasses, String[] fieldNames, 
+			boolean[] accessible) {
+		this.type = type;
+		this.declaringClasses = declaringClasses;
+		this.fieldNames = fieldNames;
+		this.accessible = accessible;
+	}
+
+	/**
+	 * @return The class this codec is for.
+	 */
+	public final Class<T> getType() {
+		return type;
+	}
+	
+	/**
+	 * Returns whether the field with the given index can be read and written
+	 * by {@link #get(java.lang.Object, int)} and {@link #set(java.lang.Object, int, java.lang.Object)}.
+	 * 
+	 * @param index The index of the field.
+	 * @return Whether the field is accessible for the generated code.
+	 */
+	public final boolean isAccessible(int index) {
+		return accessible[index];
+	}
+	
+	/**
+	 * Creates a new object of the codec's class with its default constructor.
+	 * 
+	 * @return The new object or {@code null} if the class has no default
+	 *		constructor, that is accessible for the generated code.
+	 */
+	public abstract T newInstance();
+	
+	/**
+	 * Reads the value of an accessible field.
+	 * 
+	 * @param obj The object to read from.
+	 * @param index The index of the field.
+	 * @return The value of the field. Primitive values are boxed.
+	 */
+	public abstract Object get(Object obj, int index);
+	
+	/**
+	 * Writes the value of an accessible field.
+	 * 
+	 * @param obj The object to write to.
+	 * @param index The index of the field.
+	 * @param value The new value of the field.
+	 * 
+	 * @throws ClassCastException If the value doesn't match the type of the field.
+	 */
+	public abstract void set(Object obj, int index, Object value);
+	
+	/**
+	 * Returns the persisted fields of the codec's class in the order of their
+	 * indices. The fields are looked up by their name once, instead of walking
+	 * all fields of the class hierarchy.
+	 */
+	Collection<Field> getFields() {
+		if(fields == null) {
+			List<Field> list = new ArrayList<Field>(fieldNames.length);
+			for(int i = 0; i < fieldNames.length; i++) {
+				try {
+					list.add(declaringClasses[i].getDeclaredField(fieldNames[i]));
+				} catch (NoSuchFieldException ex) {
+					throw new IllegalStateException(String.format("The generated codec for class %s "
+							+ "is out of date. Field %s doesn't exist anymore.", type.getName(), fieldNames[i]), ex);
+				}
+			}
+			fields = Collections.unmodifiableList(list);
+		}
+		return fields;
+	}
+	
+}
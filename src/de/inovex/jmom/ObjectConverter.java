@@ -15,18 +15,25 @@
  */
 package de.inovex.jmom;
 
-import com.mongodb.DBObject;
-import com.mongodb.DBRef;
+import de.inovex.jmom.annotations.Reference.Cascade;
 import de.inovex.jmom.util.ReflectionUtil;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
-import org.bson.types.ObjectId;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The {@link ObjectConverter} is responsible for converting an object from database
  * or to database. It just inspects the object's type and pass it to the 
  * corresponding {@link Converter} for that type.
  * 
+ * Every {@code ObjectConverter} saves referenced objects with a specific 
+ * {@link Cascade}. The converter for another cascade can be requested with
+ * {@link #forCascade(de.inovex.jmom.annotations.Reference.Cascade)}, so the
+ * cascade of a field only needs to be resolved once.
+ * 
  * @author Tim Roes <tim.roes@inovex.de>
  */
 class ObjectConverter implements Converter {
@@ -36,42 +43,117 @@ class ObjectConverter implements Converter {
 	private ArrayConverter arrayConverter;
 	private CollectionConverter collectionConverter;
 	private PrimitiveConverter primitiveConverter;
+	private ReferenceConverter referenceConverter;
+	
+	private final Cascade cascade;
+	private final Map<Cascade, ObjectConverter> cascadeConverters;
 	
 	ObjectConverter(Storage storage) {
+		this(storage, Cascade.SAVE, new PrimitiveConverter(storage), 
+				new EnumMap<Cascade, ObjectConverter>(Cascade.class));
+		for(Cascade c : Cascade.values()) {
+			if(c != cascade) {
+				cascadeConverters.put(c, new ObjectConverter(storage, c, primitiveConverter, cascadeConverters));
+			}
+		}
+	}
+	
+	private ObjectConverter(Storage storage, Cascade cascade, PrimitiveConverter primitiveConverter,
+			Map<Cascade, ObjectConverter> cascadeConverters) {
 		this.storage = storage;
+		this.cascade = cascade;
+		this.primitiveConverter = primitiveConverter;
+		this.cascadeConverters = cascadeConverters;
+		cascadeConverters.put(cascade, this);
 		arrayConverter = new ArrayConverter(this);
 		collectionConverter = new CollectionConverter(this);
-		primitiveConverter = new PrimitiveConverter(storage);
+		referenceConverter = new ReferenceConverter(storage, cascade);
+	}
+	
+	/**
+	 * Returns the converter, that saves referenced objects with the given
+	 * {@link Cascade}. All these converters share their primitive converter.
+	 * 
+	 * @param cascade The cascade for referenced objects.
+	 * @return The converter for that cascade.
+	 */
+	ObjectConverter forCascade(Cascade cascade) {
+		return cascadeConverters.get(cascade);
 	}
 	
 	public Config getConfig() {
 		return storage.getConfig();
 	}
 	
+	/**
+	 * Returns the converter for primitive and pseudo primitive types.
+	 */
+	PrimitiveConverter getPrimitiveConverter() {
+		return primitiveConverter;
+	}
+	
+	/**
+	 * Decodes all elements of an array or a collection to the given component type.
+	 * If multithreading is enabled, large lists are decoded in chunks on the 
+	 * {@link DecodeExecutor} of the storage. Small lists are always decoded
+	 * on the calling thread.
+	 * 
+	 * @param dbvals The elements read from database.
+	 * @param componentType The type each element should be decoded to.
+	 * @return A list of the decoded elements in the same order.
+	 */
+	List<Object> decodeElements(List<?> dbvals, final Class<?> componentType) {
+		
+		DecodeExecutor.Decoder<Object, Object> decoder = new DecodeExecutor.Decoder<Object, Object>() {
+			@Override
+			public Object decode(Object dbval) {
+				return ObjectConverter.this.decode(dbval, componentType, null);
+			}
+		};
+		
+		if(getConfig().getMultithreadingEnabled()) {
+			return storage.getDecodeExecutor().decodeAll(dbvals, decoder);
+		}
+		
+		List<Object> result = new ArrayList<Object>(dbvals.size());
+		for(Object dbval : dbvals) {
+			result.add(decoder.decode(dbval));
+		}
+		return result;
+		
+	}
+	
+	/**
+	 * Returns the {@link Converter}, that is responsible for values of the
+	 * given type. Since the responsible converter only depends on the type,
+	 * it can be looked up once for each field.
+	 * 
+	 * @param type The type of the value.
+	 * @return The {@link Converter} for that type.
+	 */
+	Converter getConverter(Class<?> type) {
+		if(ReflectionUtil.isPseudoPrimitive(type)) {
+			return primitiveConverter;
+		} else if(type.isArray()) {
+			return arrayConverter;
+		} else if(Collection.class.isAssignableFrom(type)) {
+			return collectionConverter;
+		} else {
+			return referenceConverter;
+		}
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public Object encode(Object fieldval, Class<?> fieldType, Field field) {
 		
-		Object val;
-	
 		if(fieldval == null) {
 			return null;
-		} else if(ReflectionUtil.isPseudoPrimitive(fieldType))  {
-			val = primitiveConverter.encode(fieldval, fieldType, field);
-		} else if(fieldType.isArray()) {
-			val = arrayConverter.encode(fieldval, fieldType, field);
-		} else if(Collection.class.isAssignableFrom(fieldType)) {
-			val = collectionConverter.encode(fieldval, fieldType, field);
-		} else {
-			// Save referenced object to database
-			DBObject refObj = storage.saveObject(fieldval);
-			// Create DBRef object to referenced object
-			val = storage.createRef(refObj, fieldval.getClass());
 		}
 		
-		return val;
+		return getConverter(fieldType).encode(fieldval, fieldType, field);
 		
 	}
 	
@@ -81,29 +163,11 @@ class ObjectConverter implements Converter {
 	@Override
 	public Object decode(Object dbval, Class<?> objectType, Field field) {
 	
-		Object obj;
-		
 		if(dbval == null) {
 			return null;
-		} else if(ReflectionUtil.isPseudoPrimitive(objectType)) {
-			obj = primitiveConverter.decode(dbval, objectType, field);
-		} else if(objectType.isArray()) {
-			obj = arrayConverter.decode(dbval, objectType, field);
-		} else if(Collection.class.isAssignableFrom(objectType)) {
-			obj = collectionConverter.decode(dbval, objectType, field);
-		} else {
-			if(dbval instanceof DBRef) {
-				// Dereference database object and convert it to field type
-				DBObject dbo = storage.fetchRef((DBRef)dbval);
-				if(dbo == null) return null;
-				obj = storage.convertObject(dbo, objectType);
-				storage.getCache().put((ObjectId)dbo.get(Storage.ID_FIELD), obj);
-			} else {
-				obj = dbval;
-			}
 		}
 		
-		return obj;
+		return getConverter(objectType).decode(dbval, objectType, field);
 
 	}
 	
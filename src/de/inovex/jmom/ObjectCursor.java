@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.DBObject;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An {@code ObjectCursor} iterates over all objects of a class, without loading
+ * them all into memory at once. The objects are read from database and decoded
+ * in batches, so only one batch is held in memory at any time.
+ *
+ * The cursor will be closed automatically once the last object has been read.
+ * If you stop iterating before, you need to call {@link #close()} to release
+ * the database cursor:
+ *
+ * <pre>
+ * ObjectCursor&lt;Order&gt; orders = storage.iterate(Order.class);
+ * try {
+ *     for(Order order : orders) {
+ *         ...
+ *     }
+ * } finally {
+ *     orders.close();
+ * }
+ * </pre>
+ *
+ * An {@code ObjectCursor} can only be iterated once.
+ *
+ * @see Storage#iterate(java.lang.Class)
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class ObjectCursor<T> implements Iterator<T>, Iterable<T>, Closeable {
+
+	private final Storage storage;
+	private final Iterator<DBObject> source;
+	private final Class<T> clazz;
+	private final int batchSize;
+
+	private List<T> batch = Collections.emptyList();
+	private int position;
+	private boolean closed;
+
+	ObjectCursor(Storage storage, Iterator<DBObject> source, Class<T> clazz, int batchSize) {
+		this.storage = storage;
+		this.source = source;
+		this.clazz = clazz;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean hasNext() {
+		if(position < batch.size()) {
+			return true;
+		}
+		if(closed) {
+			return false;
+		}
+		fetchBatch();
+		return position < batch.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T obj = batch.get(position);
+		// Don't keep a reference to objects, the caller already got.
+		batch.set(position++, null);
+		return obj;
+	}
+
+	/**
+	 * Removing objects is not supported by this cursor. Use
+	 * {@link Storage#delete(java.lang.Object)} instead.
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("ObjectCursor doesn't support remove.");
+	}
+
+	/**
+	 * Returns this cursor itself, so it can be used in a for each loop.
+	 * Since the cursor can only be iterated once, every call will return
+	 * the same iterator.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return this;
+	}
+
+	/**
+	 * Closes the underlying database cursor. Calling this method on an already
+	 * closed cursor has no effect.
+	 */
+	@Override
+	public void close() {
+		batch = Collections.emptyList();
+		position = 0;
+		closeSource();
+	}
+
+	/**
+	 * Closes the database cursor, but keeps the current batch, so it can
+	 * still be read.
+	 */
+	private void closeSource() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		if(source instanceof Closeable) {
+			try {
+				((Closeable)source).close();
+			} catch (IOException ex) {
+				Logger.getLogger(ObjectCursor.class.getName()).log(Level.WARNING, null, ex);
+			}
+		}
+	}
+
+	/**
+	 * Reads and decodes the next batch of objects from the database cursor.
+	 * If the database cursor has no more objects, the cursor will be closed.
+	 */
+	private void fetchBatch() {
+
+		List<DBObject> dbobjects = new ArrayList<DBObject>(batchSize);
+		try {
+			while(dbobjects.size() < batchSize && source.hasNext()) {
+				dbobjects.add(source.next());
+			}
+			batch = storage.decodeAll(dbobjects, clazz);
+			position = 0;
+		} catch(RuntimeException ex) {
+			close();
+			throw ex;
+		}
+
+		if(dbobjects.size() < batchSize) {
+			closeSource();
+		}
+
+	}
+
+}
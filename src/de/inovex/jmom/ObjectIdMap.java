@@ -0,0 +1,233 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import org.bson.types.ObjectId;
+
+/**
+ * A hash map with {@link ObjectId ObjectIds} as keys. Instead of holding 
+ * the {@code ObjectId} objects and an entry object for every mapping, the
+ * three ints of each id are stored in one int array and the values in an 
+ * object array at the same position. Collisions are resolved by linear 
+ * probing, so a lookup only reads neighboring elements of these arrays.
+ * 
+ * This map is not synchronized and doesn't accept {@code null} values.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+final class ObjectIdMap<V> {
+	
+	/**
+	 * The table is resized, when it is filled more than this.
+	 */
+	private static final float LOAD_FACTOR = 0.6f;
+	
+	/**
+	 * The time, machine and inc of the id in each slot.
+	 */
+	private int[] keys;
+	
+	/**
+	 * The value of each slot or {@code null} if the slot is empty.
+	 */
+	private Object[] values;
+	
+	private int size;
+	private int threshold;
+	
+	ObjectIdMap() {
+		allocate(16);
+	}
+	
+	/**
+	 * Returns a hash code for an id, that uses all bits of the id.
+	 */
+	static int hash(int time, int machine, int inc) {
+		int h = (time * 31 + machine) * 31 + inc;
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+	
+	static int hash(ObjectId id) {
+		return hash(id._time(), id._machine(), id._inc());
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	V get(ObjectId id) {
+		return get(id._time(), id._machine(), id._inc());
+	}
+	
+	V get(int time, int machine, int inc) {
+		int slot = find(time, machine, inc);
+		return slot < 0 ? null : valueAt(slot);
+	}
+	
+	/**
+	 * Maps the id to the value.
+	 * 
+	 * @return The value, that was mapped to the id before or {@code null}.
+	 */
+	V put(ObjectId id, V value) {
+		return put(id._time(), id._machine(), id._inc(), value);
+	}
+	
+	V put(int time, int machine, int inc, V value) {
+		
+		if(value == null) {
+			throw new NullPointerException("ObjectIdMap doesn't accept null values.");
+		}
+		
+		int mask = values.length - 1;
+		int slot = (hash(time, machine, inc) >>> 4) & mask;
+		while(values[slot] != null) {
+			if(matches(slot, time, machine, inc)) {
+				V old = valueAt(slot);
+				values[slot] = value;
+				return old;
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		keys[slot * 3] = time;
+		keys[slot * 3 + 1] = machine;
+		keys[slot * 3 + 2] = inc;
+		values[slot] = value;
+		
+		if(++size > threshold) {
+			resize();
+		}
+		return null;
+		
+	}
+	
+	/**
+	 * Removes the mapping of the id.
+	 * 
+	 * @return The removed value or {@code null}.
+	 */
+	V remove(ObjectId id) {
+		return remove(id._time(), id._machine(), id._inc(), null);
+	}
+	
+	/**
+	 * Removes the mapping of the id, if it is mapped to the given value 
+	 * (compared by identity) or to any value, if {@code value} is {@code null}.
+	 * 
+	 * @return The removed value or {@code null} if nothing has been removed.
+	 */
+	V remove(int time, int machine, int inc, V value) {
+		
+		int slot = find(time, machine, inc);
+		if(slot < 0 || (value != null && values[slot] != value)) {
+			return null;
+		}
+		
+		V old = valueAt(slot);
+		deleteSlot(slot);
+		size--;
+		return old;
+		
+	}
+	
+	/**
+	 * Returns the slot of the id or -1 if the map doesn't contain it.
+	 */
+	private int find(int time, int machine, int inc) {
+		int mask = values.length - 1;
+		int slot = (hash(time, machine, inc) >>> 4) & mask;
+		while(values[slot] != null) {
+			if(matches(slot, time, machine, inc)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the value in a slot. Only values of type {@code V} are put into
+	 * the value array.
+	 */
+	@SuppressWarnings("unchecked")
+	private V valueAt(int slot) {
+		return (V)values[slot];
+	}
+	
+	private boolean matches(int slot, int time, int machine, int inc) {
+		int k = slot * 3;
+		return keys[k] == time && keys[k + 1] == machine && keys[k + 2] == inc;
+	}
+	
+	/**
+	 * Empties a slot and moves following entries of the same probe sequence
+	 * back, so no entry becomes unreachable.
+	 */
+	private void deleteSlot(int slot) {
+		
+		int mask = values.length - 1;
+		int empty = slot;
+		int next = (slot + 1) & mask;
+		
+		while(values[next] != null) {
+			int k = next * 3;
+			int home = (hash(keys[k], keys[k + 1], keys[k + 2]) >>> 4) & mask;
+			// Move the entry, if the empty slot lies between its home slot and its current slot
+			if(((next - home) & mask) >= ((next - empty) & mask)) {
+				System.arraycopy(keys, k, keys, empty * 3, 3);
+				values[empty] = values[next];
+				empty = next;
+			}
+			next = (next + 1) & mask;
+		}
+		
+		values[empty] = null;
+		
+	}
+	
+	private void resize() {
+		
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(oldValues.length * 2);
+		
+		int mask = values.length - 1;
+		for(int i = 0; i < oldValues.length; i++) {
+			if(oldValues[i] == null) {
+				continue;
+			}
+			int k = i * 3;
+			int slot = (hash(oldKeys[k], oldKeys[k + 1], oldKeys[k + 2]) >>> 4) & mask;
+			while(values[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			System.arraycopy(oldKeys, k, keys, slot * 3, 3);
+			values[slot] = oldValues[i];
+		}
+		
+	}
+	
+	private void allocate(int capacity) {
+		keys = new int[capacity * 3];
+		values = new Object[capacity];
+		threshold = (int)(capacity * LOAD_FACTOR);
+	}
+	
+}
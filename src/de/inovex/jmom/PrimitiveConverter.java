@@ -58,23 +58,20 @@ class PrimitiveConverter implements Converter {
 			return null;
 		
 		Object val = dbval;
-		Long longVal;
 		
+		// Values, that already have the requested type, are returned as they are.
 		if(objectType == Byte.TYPE || objectType == Byte.class) {
-			longVal = checkRange(Long.valueOf(dbval.toString()), Byte.class, Byte.MIN_VALUE, Byte.MAX_VALUE);
-			val = longVal.byteValue();
+			val = decodeByte(dbval);
 		} else if(objectType == Short.TYPE || objectType == Short.class) {
-			longVal = checkRange(Long.valueOf(dbval.toString()), Short.class, Short.MIN_VALUE, Short.MAX_VALUE);
-			val = longVal.shortValue();
+			val = decodeShort(dbval);
 		} else if(objectType == Integer.TYPE || objectType == Integer.class) {
-			longVal = checkRange(Long.valueOf(dbval.toString()), Integer.class, Integer.MIN_VALUE, Integer.MAX_VALUE);
-			val = longVal.intValue();
+			val = (dbval instanceof Integer) ? dbval : decodeInt(dbval);
 		} else if(objectType == Long.TYPE || objectType == Long.class) {
-			val = Long.valueOf(dbval.toString());
+			val = (dbval instanceof Long) ? dbval : decodeLong(dbval);
 		} else if(objectType == Float.TYPE || objectType == Float.class) {
-			val = Float.parseFloat(dbval.toString());
+			val = decodeFloat(dbval);
 		} else if(objectType == Double.TYPE || objectType == Double.class) {
-			val = Double.valueOf(dbval.toString());
+			val = (dbval instanceof Double) ? dbval : decodeDouble(dbval);
 		} else if(objectType == Character.TYPE || objectType == Character.class) {
 			val = getCharacter(dbval.toString());
 		} else if(Date.class.isAssignableFrom(objectType)) {
@@ -97,14 +94,72 @@ class PrimitiveConverter implements Converter {
 		return fieldval;
 	}
 	
-	private Long checkRange(Long dbval, Class<?> downcastType, long minValue, long maxValue) {
+	/*
+	 * The following methods decode a database value to a single primitive type.
+	 * They are used by specialized codecs, to write primitive fields without 
+	 * boxing the value. Numbers coming from database are converted directly,
+	 * only strings need to be parsed.
+	 */
+	
+	byte decodeByte(Object dbval) {
+		return (byte)checkRange(toLong(dbval), Byte.class, Byte.MIN_VALUE, Byte.MAX_VALUE);
+	}
+	
+	short decodeShort(Object dbval) {
+		return (short)checkRange(toLong(dbval), Short.class, Short.MIN_VALUE, Short.MAX_VALUE);
+	}
+	
+	int decodeInt(Object dbval) {
+		return (int)checkRange(toLong(dbval), Integer.class, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+	
+	long decodeLong(Object dbval) {
+		return toLong(dbval);
+	}
+	
+	float decodeFloat(Object dbval) {
+		if(dbval instanceof Number) {
+			return ((Number)dbval).floatValue();
+		}
+		return Float.parseFloat(dbval.toString());
+	}
+	
+	double decodeDouble(Object dbval) {
+		if(dbval instanceof Number) {
+			return ((Number)dbval).doubleValue();
+		}
+		return Double.parseDouble(dbval.toString());
+	}
+	
+	/**
+	 * Returns {@code null}, if the value cannot be decoded to a character.
+	 * The field must be left untouched then, as {@link #decode(java.lang.Object, java.lang.Class, java.lang.reflect.Field)}
+	 * does.
+	 */
+	Character decodeChar(Object dbval) {
+		return getCharacter(dbval.toString());
+	}
+	
+	/**
+	 * Converts an integral value to a long. Floating point numbers are
+	 * parsed like strings, so they fail the same way for integral fields.
+	 */
+	private static long toLong(Object dbval) {
+		if(dbval instanceof Integer || dbval instanceof Long
+				|| dbval instanceof Short || dbval instanceof Byte) {
+			return ((Number)dbval).longValue();
+		}
+		return Long.parseLong(dbval.toString());
+	}
+	
+	private long checkRange(long dbval, Class<?> downcastType, long minValue, long maxValue) {
 		
 		if(dbval > maxValue || dbval < minValue) {
 			switch(storage.getConfig().getNumericBehavior()) {
 				case EXCEPTION:
 					throw new NumericException(String.format("The value %s is to large or small to fit into a %s field.", dbval, downcastType.getName()));
 				case ZERO_VALUE:
-					return Long.valueOf(0);
+					return 0;
 				case OVERFLOW:
 					return dbval;
 				default:
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import de.inovex.jmom.util.ReflectionUtil;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.bson.types.ObjectId;
+
+/**
+ * A {@code Query} selects objects of a class by the values of their fields.
+ * The conditions are translated to a query document and passed to the
+ * database, so only the matching objects are read and decoded. A query is
+ * created by {@link Storage#query(java.lang.Class)}:
+ *
+ * <pre>
+ * List&lt;Order&gt; orders = storage.query(Order.class)
+ *     .where("status").is("OPEN")
+ *     .and("total").gte(100)
+ *     .sort(Sort.descending("total"))
+ *     .limit(10)
+ *     .list();
+ * </pre>
+ *
+ * All conditions must be met by an object. The field names are the names of
+ * the persisted fields of the class, the id can be queried with {@link Sort#ID}.
+ * Values of pseudo primitive fields are compared as they are stored. Other
+ * values must be objects, that have already been read from or saved to the
+ * storage, so they will be compared by their reference.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class Query<T> {
+
+	private final Storage storage;
+	private final Class<T> clazz;
+	private final FieldList fieldList;
+
+	private final DBObject query = new BasicDBObject();
+	private Sort sort;
+	private int skip;
+	private int limit;
+
+	Query(Storage storage, Class<T> clazz) {
+		this.storage = storage;
+		this.clazz = clazz;
+		this.fieldList = FieldList.valueOf(clazz);
+	}
+
+	/**
+	 * Starts a condition on the given field.
+	 *
+	 * @param field The name of the field.
+	 * @return The condition, that must be completed by one of its methods.
+	 *
+	 * @throws IllegalArgumentException If the class has no persisted field with that name.
+	 */
+	public Criteria where(String field) {
+		if(!Sort.ID.equals(field) && fieldList.getField(field) == null) {
+			throw new IllegalArgumentException(String.format("Class %s has no persisted field %s.",
+					clazz.getName(), field));
+		}
+		return new Criteria(field);
+	}
+
+	/**
+	 * Starts another condition on the given field. This is the same as
+	 * {@link #where(java.lang.String)}.
+	 *
+	 * @param field The name of the field.
+	 * @return The condition, that must be completed by one of its methods.
+	 */
+	public Criteria and(String field) {
+		return where(field);
+	}
+
+	/**
+	 * Sets the order of the returned objects.
+	 *
+	 * @param sort The order or {@code null} for no specific order.
+	 * @return This query.
+	 */
+	public Query<T> sort(Sort sort) {
+		this.sort = sort;
+		return this;
+	}
+
+	/**
+	 * Sets the number of matching objects, that should be skipped.
+	 *
+	 * @param skip The number of objects to skip.
+	 * @return This query.
+	 */
+	public Query<T> skip(int skip) {
+		if(skip < 0) {
+			throw new IllegalArgumentException("skip must not be negative.");
+		}
+		this.skip = skip;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of objects, that should be returned.
+	 *
+	 * @param limit The maximum number of objects or {@code 0} for no limit.
+	 * @return This query.
+	 */
+	public Query<T> limit(int limit) {
+		if(limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative.");
+		}
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * Returns all objects, that match this query.
+	 *
+	 * @return The matching objects.
+	 */
+	public List<T> list() {
+		return storage.find(clazz, query, sort, skip, limit);
+	}
+
+	/**
+	 * Returns the first object, that matches this query.
+	 *
+	 * @return The first matching object or {@code null} if no object matches.
+	 */
+	public T first() {
+		List<T> result = storage.find(clazz, query, sort, skip, 1);
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Returns the class of the objects, this query selects.
+	 */
+	Class<T> getType() {
+		return clazz;
+	}
+
+	/**
+	 * Returns the query document for the database. The returned object
+	 * belongs to this query and must not be modified.
+	 */
+	DBObject getQueryObject() {
+		return query;
+	}
+
+	/**
+	 * Returns the sort document for the database or {@code null} if no sort
+	 * has been set.
+	 */
+	DBObject getSortObject() {
+		return (sort != null) ? sort.toDBObject(clazz) : null;
+	}
+
+	int getSkip() {
+		return skip;
+	}
+
+	int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Adds an operator condition. Several operators on the same field are
+	 * combined into one document, so ranges like {@code gt(1).lt(5)} are
+	 * possible.
+	 */
+	private void addOperator(String field, String operator, Object value) {
+		Object existing = query.get(field);
+		if(existing instanceof BasicDBObject && isOperatorObject((BasicDBObject)existing)) {
+			((BasicDBObject)existing).put(operator, value);
+		} else {
+			query.put(field, new BasicDBObject(operator, value));
+		}
+	}
+
+	private static boolean isOperatorObject(BasicDBObject dbobj) {
+		for(String key : dbobj.keySet()) {
+			if(!key.startsWith("$")) {
+				return false;
+			}
+		}
+		return !dbobj.isEmpty();
+	}
+
+	/**
+	 * Converts a value to the value, it is stored with in database.
+	 */
+	private Object encode(Object value) {
+
+		if(value == null || value instanceof ObjectId) {
+			return value;
+		}
+
+		if(value instanceof Character) {
+			return value.toString();
+		}
+
+		if(ReflectionUtil.isPseudoPrimitive(value.getClass())) {
+			return value;
+		}
+
+		ObjectId id = storage.getCache().getId(value);
+		if(id == null) {
+			throw new IllegalArgumentException(String.format("Cannot query for an object of class %s, "
+					+ "that hasn't been read from or saved to the storage.", value.getClass().getName()));
+		}
+		return storage.createRef(new BasicDBObject(Storage.ID_FIELD, id), value.getClass());
+
+	}
+
+	private BasicDBList encodeAll(Collection<?> values) {
+		BasicDBList list = new BasicDBList();
+		for(Object value : values) {
+			list.add(encode(value));
+		}
+		return list;
+	}
+
+	/**
+	 * A condition on a single field of a {@link Query}. Each method adds
+	 * the condition to the query and returns the query again.
+	 */
+	public class Criteria {
+
+		private final String field;
+
+		private Criteria(String field) {
+			this.field = field;
+		}
+
+		/**
+		 * The field must be equal to the given value.
+		 */
+		public Query<T> is(Object value) {
+			query.put(field, encode(value));
+			return Query.this;
+		}
+
+		/**
+		 * The field must not be equal to the given value.
+		 */
+		public Query<T> ne(Object value) {
+			addOperator(field, "$ne", encode(value));
+			return Query.this;
+		}
+
+		/**
+		 * The field must be greater than the given value.
+		 */
+		public Query<T> gt(Object value) {
+			addOperator(field, "$gt", encode(value));
+			return Query.this;
+		}
+
+		/**
+		 * The field must be greater than or equal to the given value.
+		 */
+		public Query<T> gte(Object value) {
+			addOperator(field, "$gte", encode(value));
+			return Query.this;
+		}
+
+		/**
+		 * The field must be less than the given value.
+		 */
+		public Query<T> lt(Object value) {
+			addOperator(field, "$lt", encode(value));
+			return Query.this;
+		}
+
+		/**
+		 * The field must be less than or equal to the given value.
+		 */
+		public Query<T> lte(Object value) {
+			addOperator(field, "$lte", encode(value));
+			return Query.this;
+		}
+
+		/**
+		 * The field must be equal to one of the given values.
+		 */
+		public Query<T> in(Object... values) {
+			return in(Arrays.asList(values));
+		}
+
+		/**
+		 * The field must be equal to one of the given values.
+		 */
+		public Query<T> in(Collection<?> values) {
+			addOperator(field, "$in", encodeAll(values));
+			return Query.this;
+		}
+
+		/**
+		 * The field must not be equal to any of the given values.
+		 */
+		public Query<T> notIn(Object... values) {
+			return notIn(Arrays.asList(values));
+		}
+
+		/**
+		 * The field must not be equal to any of the given values.
+		 */
+		public Query<T> notIn(Collection<?> values) {
+			addOperator(field, "$nin", encodeAll(values));
+			return Query.this;
+		}
+
+	}
+
+}
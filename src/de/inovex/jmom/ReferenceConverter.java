@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import de.inovex.jmom.annotations.Reference.Cascade;
+import de.inovex.jmom.exception.SerializationException;
+import java.lang.reflect.Field;
+import org.bson.types.ObjectId;
+
+/**
+ * The {@code ReferenceConverter} is responsible for all objects, that aren't
+ * stored inside the object referencing them, but as an object of their own.
+ * These objects are saved to their own collection and only a {@link DBRef}
+ * to them is stored in the referencing object. Whether the referenced object
+ * is saved, when the referencing object is saved, depends on the {@link Cascade}
+ * of the converter.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+class ReferenceConverter implements Converter {
+	
+	private Storage storage;
+	private final Cascade cascade;
+
+	ReferenceConverter(Storage storage, Cascade cascade) {
+		this.storage = storage;
+		this.cascade = cascade;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object encode(Object fieldval, Class<?> fieldType, Field field) {
+		
+		DBObject refObj;
+		if(cascade == Cascade.SAVE) {
+			// Save referenced object to database, if it's new or has changed
+			refObj = storage.saveObject(fieldval);
+		} else {
+			// Stored objects are referenced by their cached id without saving them
+			ObjectId id = storage.getSavedId(fieldval);
+			if(id != null) {
+				refObj = new BasicDBObject(Storage.ID_FIELD, id);
+			} else if(cascade == Cascade.NEW) {
+				refObj = storage.saveObject(fieldval);
+			} else {
+				throw new SerializationException(String.format("Referenced object of class %s "
+						+ "hasn't been stored and cannot be saved with cascade %s.", 
+						fieldval.getClass().getName(), cascade));
+			}
+		}
+		
+		// Create DBRef object to referenced object
+		return storage.createRef(refObj, fieldval.getClass());
+		
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object decode(Object dbval, Class<?> objectType, Field field) {
+		
+		if(!(dbval instanceof DBRef)) {
+			return dbval;
+		}
+		
+		// Dereference database object and convert it to field type
+		DBObject dbo = storage.fetchRef((DBRef)dbval);
+		if(dbo == null) return null;
+		return storage.decodeReference(dbo, objectType);
+		
+	}
+	
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.bson.types.ObjectId;
+
+/**
+ * The {@code ReferenceResolver} fetches the objects, that {@link DBRef DBRefs}
+ * are pointing to. If {@link Config#getReferencePrefetchEnabled() reference prefetching}
+ * is enabled, all references of a list of {@link DBObject DBObjects} are
+ * collected before decoding, grouped by their collection and fetched with one
+ * {@code $in} query per collection. This is repeated for the references of the
+ * fetched objects, until no new references are found. So the number of queries
+ * depends on the depth of the references, not on the number of objects.
+ *
+ * The prefetched objects are held until the decoding of the list has finished.
+ * References, that haven't been prefetched, will be fetched one by one.
+ * Documents, that have been read with a projection, are never handed out
+ * for a reference, since they don't contain all fields.
+ * 
+ * Objects found in the {@link DocumentCache} are neither prefetched nor
+ * fetched. Objects fetched from database are added to it.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+class ReferenceResolver {
+
+	/**
+	 * The maximum number of ids, that are queried with a single {@code $in} query.
+	 */
+	static final int MAX_IDS_PER_QUERY = 1000;
+
+	private final Storage.DBHandler dbhandler;
+	private final DocumentCache documentCache;
+
+	/**
+	 * Holds all prefetched objects by their collection and id. Since several
+	 * lists might be decoded at the same time, every prefetch only removes 
+	 * the objects, that it has added itself.
+	 */
+	private final ConcurrentMap<DocumentCache.Key, DBObject> prefetched = new ConcurrentHashMap<DocumentCache.Key, DBObject>();
+
+	ReferenceResolver(Storage.DBHandler dbhandler, DocumentCache documentCache) {
+		this.dbhandler = dbhandler;
+		this.documentCache = documentCache;
+	}
+
+	/**
+	 * Returns the object the given {@link DBRef} is pointing to. If that
+	 * object has been prefetched, no query will be sent to database.
+	 *
+	 * @param dbref The reference to fetch.
+	 * @return The referenced object or {@code null} if it doesn't exist.
+	 */
+	DBObject fetch(DBRef dbref) {
+		DBObject dbobj = prefetched.get(new DocumentCache.Key(dbref.getRef(), dbref.getId()));
+		if(dbobj == null) {
+			dbobj = documentCache.get(dbref.getRef(), dbref.getId());
+		}
+		if(dbobj == null) {
+			long stamp = documentCache.getStamp();
+			dbobj = dbhandler.onFetchRef(dbref);
+			if(dbobj != null) {
+				documentCache.put(dbref.getRef(), dbobj, stamp);
+			}
+		}
+		return dbobj;
+	}
+
+	/**
+	 * Fetches all objects, that are referenced (directly or indirectly) by the
+	 * given objects. The returned keys must be passed to {@link #release(java.util.Collection)}
+	 * after the objects have been decoded.
+	 * 
+	 * If the given objects have been read with a projection, they aren't
+	 * handed out for references to them. Such references are fetched in full 
+	 * like any other reference.
+	 *
+	 * @param collection The collection of the given objects.
+	 * @param dbobjects The objects, whose references should be fetched.
+	 * @param partial Whether the objects only contain some of their fields.
+	 * @return The keys of all objects, that have been prefetched by this call.
+	 */
+	Collection<DocumentCache.Key> prefetch(String collection, Collection<DBObject> dbobjects, boolean partial) {
+
+		List<DocumentCache.Key> owned = new ArrayList<DocumentCache.Key>();
+		Map<String, List<DBObject>> level = new LinkedHashMap<String, List<DBObject>>();
+		level.put(collection, new ArrayList<DBObject>(dbobjects));
+		
+		// Keys of all objects we already have, so cyclic references will only be fetched once.
+		Set<DocumentCache.Key> seen = new HashSet<DocumentCache.Key>();
+		// Partial objects must be fetched in full, if they are referenced.
+		boolean complete = !partial;
+
+		try {
+			while(!level.isEmpty()) {
+
+				// The objects of this level might be referenced by other objects too.
+				if(complete) {
+					for(Map.Entry<String, List<DBObject>> entry : level.entrySet()) {
+						for(DBObject dbobj : entry.getValue()) {
+							Object id = dbobj.get(Storage.ID_FIELD);
+							if(id == null) {
+								continue;
+							}
+							DocumentCache.Key key = new DocumentCache.Key(entry.getKey(), id);
+							if(seen.add(key) && prefetched.putIfAbsent(key, dbobj) == null) {
+								owned.add(key);
+							}
+						}
+					}
+				}
+				// All referenced objects are read in full.
+				complete = true;
+				
+				Map<String, Set<ObjectId>> refs = new LinkedHashMap<String, Set<ObjectId>>();
+				for(List<DBObject> dbobjs : level.values()) {
+					for(DBObject dbobj : dbobjs) {
+						for(String key : dbobj.keySet()) {
+							collectRefs(dbobj.get(key), refs, seen);
+						}
+					}
+				}
+
+				Map<String, List<DBObject>> next = new LinkedHashMap<String, List<DBObject>>();
+				for(Map.Entry<String, Set<ObjectId>> entry : refs.entrySet()) {
+					List<DBObject> found = new ArrayList<DBObject>();
+					List<ObjectId> ids = new ArrayList<ObjectId>(entry.getValue().size());
+					for(ObjectId id : entry.getValue()) {
+						DBObject cached = documentCache.get(entry.getKey(), id);
+						if(cached != null) {
+							found.add(cached);
+						} else {
+							ids.add(id);
+						}
+					}
+					for(int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+						List<ObjectId> chunk = ids.subList(from, Math.min(from + MAX_IDS_PER_QUERY, ids.size()));
+						long stamp = documentCache.getStamp();
+						for(DBObject dbobj : dbhandler.onGetByIds(entry.getKey(), chunk)) {
+							documentCache.put(entry.getKey(), dbobj, stamp);
+							found.add(dbobj);
+						}
+					}
+					if(!found.isEmpty()) {
+						next.put(entry.getKey(), found);
+					}
+				}
+
+				level = next;
+
+			}
+		} catch(RuntimeException ex) {
+			release(owned);
+			throw ex;
+		}
+
+		return owned;
+
+	}
+
+	/**
+	 * Releases objects, that have been prefetched by {@link #prefetch(java.lang.String, java.util.Collection, boolean)}.
+	 *
+	 * @param keys The keys returned by {@code prefetch}.
+	 */
+	void release(Collection<DocumentCache.Key> keys) {
+		for(DocumentCache.Key key : keys) {
+			prefetched.remove(key);
+		}
+	}
+
+	/**
+	 * Adds all {@link DBRef DBRefs} in the given value, that haven't been prefetched
+	 * yet, to the map of references. Arrays and collections are stored as lists,
+	 * so the elements of lists are checked too.
+	 */
+	private void collectRefs(Object dbval, Map<String, Set<ObjectId>> refs, Set<DocumentCache.Key> seen) {
+
+		if(dbval instanceof DBRef) {
+			DBRef ref = (DBRef)dbval;
+			if(!(ref.getId() instanceof ObjectId)) {
+				return;
+			}
+			DocumentCache.Key key = new DocumentCache.Key(ref.getRef(), ref.getId());
+			if(!seen.contains(key) && !prefetched.containsKey(key)) {
+				Set<ObjectId> ids = refs.get(ref.getRef());
+				if(ids == null) {
+					ids = new LinkedHashSet<ObjectId>();
+					refs.put(ref.getRef(), ids);
+				}
+				ids.add((ObjectId)ref.getId());
+			}
+		} else if(dbval instanceof List<?>) {
+			for(Object element : (List<?>)dbval) {
+				collectRefs(element, refs, seen);
+			}
+		}
+
+	}
+
+}
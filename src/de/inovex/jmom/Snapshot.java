@@ -0,0 +1,291 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.DBRefBase;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.bson.BSONObject;
+import org.bson.types.ObjectId;
+
+/**
+ * A {@code Snapshot} holds a 64 bit hash of every field of a {@link com.mongodb.DBObject},
+ * as it has been read from or written to database. Comparing a newly encoded
+ * object with its snapshot shows, which fields have changed, without keeping 
+ * a copy of the whole document.
+ * 
+ * The hash is computed from the database representation of the values, so 
+ * a value hashes the same, no matter if it has just been encoded or read 
+ * from database (e.g. a {@link Float} and the {@link Double} it's read back as).
+ * 
+ * A snapshot also remembers, whether the object has only been loaded 
+ * partially, so it won't be taken for the stored object.
+ * 
+ * @see Config#getDirtyTrackingEnabled() 
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+final class Snapshot {
+	
+	private static final long SEED = 0xcbf29ce484222325L;
+	
+	/*
+	 * Type tags, so that values of different types with the same bits 
+	 * (like "1" and 1) hash differently.
+	 */
+	private static final int NULL = 1;
+	private static final int STRING = 2;
+	private static final int INTEGRAL = 3;
+	private static final int FLOATING = 4;
+	private static final int BOOLEAN = 5;
+	private static final int DATE = 6;
+	private static final int OBJECT_ID = 7;
+	private static final int REF = 8;
+	private static final int DOCUMENT = 9;
+	private static final int LIST = 10;
+	private static final int BINARY = 11;
+	private static final int OTHER = 12;
+	
+	/**
+	 * The snapshot of partially loaded objects, if dirty tracking is disabled.
+	 * It doesn't contain any fields, so all fields are treated as new.
+	 */
+	static final Snapshot PARTIAL = new Snapshot(new String[0], new long[0], true);
+	
+	private final String[] keys;
+	private final long[] hashes;
+	private final boolean partial;
+	
+	private Snapshot(String[] keys, long[] hashes, boolean partial) {
+		this.keys = keys;
+		this.hashes = hashes;
+		this.partial = partial;
+	}
+	
+	/**
+	 * Creates a snapshot of a completely loaded or written object.
+	 */
+	static Snapshot of(BSONObject dbobj, FieldList fieldList) {
+		return of(dbobj, fieldList, false);
+	}
+	
+	/**
+	 * Creates a snapshot of all fields of the given object, that are in the
+	 * given {@link FieldList}. Other fields of a document (like its id or fields
+	 * written by other applications) will never be written by the storage, so
+	 * they must not be removed, because they are missing in the encoded object.
+	 * 
+	 * @param dbobj The document, that has been read or written.
+	 * @param fieldList The persisted fields of the object's class.
+	 * @param partial Whether the document only contains some of the fields,
+	 *		because the object has been loaded partially.
+	 */
+	static Snapshot of(BSONObject dbobj, FieldList fieldList, boolean partial) {
+		
+		String[] keys = new String[dbobj.keySet().size()];
+		long[] hashes = new long[keys.length];
+		
+		int i = 0;
+		for(String key : dbobj.keySet()) {
+			if(fieldList.getField(key) == null) {
+				continue;
+			}
+			keys[i] = key;
+			hashes[i] = hash(dbobj.get(key));
+			i++;
+		}
+		
+		return (i == keys.length) ? new Snapshot(keys, hashes, partial) 
+				: new Snapshot(Arrays.copyOf(keys, i), Arrays.copyOf(hashes, i), partial);
+		
+	}
+	
+	/**
+	 * Returns whether the object has only been loaded partially, so fields 
+	 * of the object might differ from the stored document.
+	 */
+	boolean isPartial() {
+		return partial;
+	}
+	
+	/**
+	 * Compares the given object with this snapshot. All fields, that are new
+	 * or have changed, are put to {@code set}, all fields, that don't exist 
+	 * in the object anymore, are put to {@code unset}. The id is ignored.
+	 * 
+	 * @param dbobj The encoded object.
+	 * @param set The object to put changed fields to.
+	 * @param unset The object to put removed fields to.
+	 */
+	void diff(BSONObject dbobj, BSONObject set, BSONObject unset) {
+		
+		boolean[] seen = new boolean[keys.length];
+		
+		int expected = 0;
+		for(String key : dbobj.keySet()) {
+			if(Storage.ID_FIELD.equals(key)) {
+				continue;
+			}
+			Object value = dbobj.get(key);
+			int index = indexOf(key, expected);
+			if(index < 0) {
+				set.put(key, value);
+			} else {
+				seen[index] = true;
+				if(hashes[index] != hash(value)) {
+					set.put(key, value);
+				}
+				expected = index + 1;
+			}
+		}
+		
+		for(int i = 0; i < keys.length; i++) {
+			if(!seen[i]) {
+				unset.put(keys[i], 1);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Returns the index of the given key. Objects of the same class are encoded 
+	 * with their fields in the same order, so the key is looked up at the 
+	 * expected position first.
+	 */
+	private int indexOf(String key, int expected) {
+		if(expected < keys.length && keys[expected].equals(key)) {
+			return expected;
+		}
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns a 64 bit hash of a database value.
+	 */
+	static long hash(Object value) {
+		return finish(hash(SEED, value));
+	}
+	
+	private static long hash(long h, Object value) {
+		
+		if(value == null) {
+			return mix(h, NULL);
+		}
+		
+		if(value instanceof String || value instanceof Character) {
+			String str = value.toString();
+			h = mix(mix(h, STRING), str.length());
+			for(int i = 0; i < str.length(); i++) {
+				h = mix(h, str.charAt(i));
+			}
+			return h;
+		}
+		
+		if(value instanceof Integer || value instanceof Long 
+				|| value instanceof Short || value instanceof Byte) {
+			return mix(mix(h, INTEGRAL), ((Number)value).longValue());
+		}
+		
+		if(value instanceof Double || value instanceof Float) {
+			return mix(mix(h, FLOATING), Double.doubleToLongBits(((Number)value).doubleValue()));
+		}
+		
+		if(value instanceof Boolean) {
+			return mix(mix(h, BOOLEAN), ((Boolean)value) ? 1 : 0);
+		}
+		
+		if(value instanceof Date) {
+			return mix(mix(h, DATE), ((Date)value).getTime());
+		}
+		
+		if(value instanceof ObjectId) {
+			ObjectId id = (ObjectId)value;
+			return mix(mix(mix(mix(h, OBJECT_ID), id._time()), id._machine()), id._inc());
+		}
+		
+		if(value instanceof DBRefBase) {
+			DBRefBase ref = (DBRefBase)value;
+			return hash(hash(mix(h, REF), ref.getRef()), ref.getId());
+		}
+		
+		if(value instanceof List<?>) {
+			List<?> list = (List<?>)value;
+			h = mix(mix(h, LIST), list.size());
+			for(Object element : list) {
+				h = hash(h, element);
+			}
+			return h;
+		}
+		
+		if(value instanceof BSONObject) {
+			BSONObject doc = (BSONObject)value;
+			h = mix(h, DOCUMENT);
+			for(String key : doc.keySet()) {
+				h = hash(hash(h, key), doc.get(key));
+			}
+			return h;
+		}
+		
+		if(value instanceof Map<?, ?>) {
+			h = mix(h, DOCUMENT);
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+				h = hash(hash(h, entry.getKey()), entry.getValue());
+			}
+			return h;
+		}
+		
+		if(value instanceof byte[]) {
+			byte[] bytes = (byte[])value;
+			h = mix(mix(h, BINARY), bytes.length);
+			for(byte b : bytes) {
+				h = mix(h, b);
+			}
+			return h;
+		}
+		
+		if(value instanceof Object[]) {
+			Object[] array = (Object[])value;
+			h = mix(mix(h, LIST), array.length);
+			for(Object element : array) {
+				h = hash(h, element);
+			}
+			return h;
+		}
+		
+		return mix(mix(mix(h, OTHER), value.getClass().getName().hashCode()), value.hashCode());
+		
+	}
+	
+	private static long mix(long h, long value) {
+		h ^= value * 0x9e3779b97f4a7c15L;
+		return Long.rotateLeft(h, 31) * 0xbf58476d1ce4e5b9L;
+	}
+	
+	private static long finish(long h) {
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		return h;
+	}
+	
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import java.util.Arrays;
+
+/**
+ * A {@code Sort} defines the order, in which objects are read from database.
+ * It consists of one or more fields, each sorted ascending or descending.
+ * The first field has the highest priority. A {@code Sort} is immutable, so
+ * every {@code then} method returns a new instance:
+ *
+ * <pre>
+ * Sort sort = Sort.descending("date").thenAscending("name");
+ * </pre>
+ *
+ * The field names are the names of the persisted fields of the class. The
+ * id of the objects can be used with {@link #ID}.
+ *
+ * @see Storage#findAll(java.lang.Class, de.inovex.jmom.Sort, int, int)
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public final class Sort {
+
+	/**
+	 * The name, that sorts by the id of the objects.
+	 */
+	public static final String ID = Storage.ID_FIELD;
+
+	/**
+	 * The natural order of the objects, by their id.
+	 */
+	static final Sort BY_ID = ascending(ID);
+
+	private final String[] fields;
+	private final boolean[] ascending;
+
+	private Sort(String[] fields, boolean[] ascending) {
+		this.fields = fields;
+		this.ascending = ascending;
+	}
+
+	/**
+	 * Returns a {@code Sort}, that sorts ascending by the given field.
+	 *
+	 * @param field The name of the field.
+	 * @return The sort for that field.
+	 */
+	public static Sort ascending(String field) {
+		return new Sort(new String[0], new boolean[0]).then(field, true);
+	}
+
+	/**
+	 * Returns a {@code Sort}, that sorts descending by the given field.
+	 *
+	 * @param field The name of the field.
+	 * @return The sort for that field.
+	 */
+	public static Sort descending(String field) {
+		return new Sort(new String[0], new boolean[0]).then(field, false);
+	}
+
+	/**
+	 * Returns a new {@code Sort}, that sorts objects, which are equal in all
+	 * fields of this sort, ascending by the given field.
+	 *
+	 * @param field The name of the field.
+	 * @return The extended sort.
+	 */
+	public Sort thenAscending(String field) {
+		return then(field, true);
+	}
+
+	/**
+	 * Returns a new {@code Sort}, that sorts objects, which are equal in all
+	 * fields of this sort, descending by the given field.
+	 *
+	 * @param field The name of the field.
+	 * @return The extended sort.
+	 */
+	public Sort thenDescending(String field) {
+		return then(field, false);
+	}
+
+	private Sort then(String field, boolean asc) {
+
+		if(field == null) {
+			throw new IllegalArgumentException("The field of a sort must not be null.");
+		}
+
+		String[] f = Arrays.copyOf(fields, fields.length + 1);
+		boolean[] a = Arrays.copyOf(ascending, ascending.length + 1);
+		f[fields.length] = field;
+		a[ascending.length] = asc;
+		return new Sort(f, a);
+
+	}
+
+	/**
+	 * Returns the number of fields in this sort.
+	 */
+	int size() {
+		return fields.length;
+	}
+
+	/**
+	 * Returns the name of the field at the given position.
+	 */
+	String getField(int index) {
+		return fields[index];
+	}
+
+	/**
+	 * Returns whether the field at the given position is sorted ascending.
+	 */
+	boolean isAscending(int index) {
+		return ascending[index];
+	}
+
+	/**
+	 * Returns whether this sort contains the given field.
+	 */
+	boolean contains(String field) {
+		for(String f : fields) {
+			if(f.equals(field)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns this sort, with an additional ascending sort by id, if it doesn't
+	 * already sort by id. So the order of objects, that are equal in all fields,
+	 * is well defined.
+	 */
+	Sort withId() {
+		return contains(ID) ? this : thenAscending(ID);
+	}
+
+	/**
+	 * Converts this sort to a sort document, that can be passed to the database.
+	 *
+	 * @param clazz The class of the sorted objects.
+	 * @return The sort document.
+	 *
+	 * @throws IllegalArgumentException If one of the fields isn't a persisted
+	 *		field of the class.
+	 */
+	DBObject toDBObject(Class<?> clazz) {
+
+		FieldList fieldList = FieldList.valueOf(clazz);
+		DBObject dbobj = new BasicDBObject();
+
+		for(int i = 0; i < fields.length; i++) {
+			if(!ID.equals(fields[i]) && fieldList.getField(fields[i]) == null) {
+				throw new IllegalArgumentException(String.format("Class %s has no persisted field %s.",
+						clazz.getName(), fields[i]));
+			}
+			dbobj.put(fields[i], ascending[i] ? 1 : -1);
+		}
+
+		return dbobj;
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		final Sort other = (Sort) obj;
+		return Arrays.equals(this.fields, other.fields) && Arrays.equals(this.ascending, other.ascending);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		int hash = 5;
+		hash = 37 * hash + Arrays.hashCode(this.fields);
+		hash = 37 * hash + Arrays.hashCode(this.ascending);
+		return hash;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < fields.length; i++) {
+			if(i > 0) {
+				sb.append(", ");
+			}
+			sb.append(fields[i]).append(ascending[i] ? " ASC" : " DESC");
+		}
+		return sb.toString();
+	}
+
+}
@@ -16,12 +16,14 @@
 package de.inovex.jmom;
 
 import com.mongodb.*;
+import de.inovex.jmom.util.ReflectionUtil;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import org.bson.types.ObjectId;
 
 /**
@@ -103,10 +105,30 @@ public class Storage {
 	private ClassConverter classConverter = new ClassConverter(this);
 	
 	private Cache cache = new DefaultCache();
+	
+	private DecodeExecutor decodeExecutor;
+	
+	private ReferenceResolver referenceResolver;
+	
+	private DocumentCache documentCache;
+	
+	/**
+	 * Holds the {@link SaveContext} of the save operation, that is currently
+	 * running on this thread.
+	 */
+	private final ThreadLocal<SaveContext> saveContext = new ThreadLocal<SaveContext>();
+	
+	/**
+	 * Holds a {@link Snapshot} of every object, that has been read or saved,
+	 * if dirty tracking is enabled.
+	 */
+	private final WeakIdentityMap<Snapshot> snapshots = new WeakIdentityMap<Snapshot>();
 
 	private Storage(DBHandler dbhandler) {
 		this.dbhandler = dbhandler;
 		this.config = new Config();
+		this.documentCache = new DocumentCache(this);
+		this.referenceResolver = new ReferenceResolver(dbhandler, documentCache);
 	}
 	
 	/**
@@ -125,7 +147,12 @@ public class Storage {
 	 * 
 	 * @param config The new {@link Config}.
 	 */
-	public void setConfig(Config config) {
+	public synchronized void setConfig(Config config) {
+		// The executor belongs to the old config, so let it finish its work.
+		if(decodeExecutor != null) {
+			decodeExecutor.shutdown();
+			decodeExecutor = null;
+		}
 		this.config = config;
 	}
 	
@@ -161,45 +188,420 @@ public class Storage {
 		saveObject(obj);		
 	}
 	
+	/**
+	 * Stores several objects in the database. In contrast to calling {@link #save(java.lang.Object)}
+	 * for each object, all objects are encoded first and then written with as
+	 * few database operations as possible: New objects get their {@link ObjectId}
+	 * assigned locally and are inserted in batches of {@link Config#getBulkWriteSize()}
+	 * objects per collection. Already stored objects are written like with
+	 * {@link #save(java.lang.Object)}: only their changed fields are updated, 
+	 * if {@link Config#getDirtyTrackingEnabled() dirty tracking} is enabled.
+	 * Stored objects without a snapshot are replaced in batches of the same size.
+	 * 
+	 * @param objects The objects to store.
+	 */
 	public void saveMultiple(Iterable<?> objects) {
-		for(Object o : objects) {
-			saveObject(o);
+		saveBulk(objects, false);
+	}
+	
+	/**
+	 * Stores an object and all objects it references with as few database 
+	 * operations as possible. In contrast to {@link #save(java.lang.Object)}, 
+	 * the referenced objects aren't written one by one, while the graph is
+	 * encoded. Instead all new objects of the graph get their {@link ObjectId}
+	 * assigned locally, so references to them can be created right away, and
+	 * all objects are written at the end, with one bulk write (of up to
+	 * {@link Config#getBulkWriteSize()} objects) per collection. Changed fields
+	 * of stored objects are updated like with {@link #saveMultiple(java.lang.Iterable)}.
+	 * 
+	 * @param root The object to store with all objects it references.
+	 */
+	public void saveGraph(Object root) {
+		saveGraph(Collections.singletonList(root));
+	}
+	
+	/**
+	 * Stores several objects and all objects they reference with as few 
+	 * database operations as possible.
+	 * 
+	 * @see #saveGraph(java.lang.Object) 
+	 * 
+	 * @param roots The objects to store with all objects they reference.
+	 */
+	public void saveGraph(Iterable<?> roots) {
+		saveBulk(roots, true);
+	}
+	
+	/**
+	 * Encodes the given objects and writes them in bulk. If {@code graph} is
+	 * set, all objects reached while encoding are collected and written in
+	 * bulk too, otherwise they are saved one by one.
+	 */
+	private void saveBulk(Iterable<?> objects, boolean graph) {
+		
+		SaveContext context = new SaveContext(true, graph);
+		
+		// Register ids for all new objects first, so that references between 
+		// the objects can be created before any of them has been written.
+		List<Object> ordered = new ArrayList<Object>();
+		for(Object obj : objects) {
+			if(obj == null || context.getId(obj) != null) {
+				continue;
+			}
+			context.visit(obj, assignId(obj, context));
+			ordered.add(obj);
+		}
+		
+		try {
+			saveContext.set(context);
+			for(Object obj : ordered) {
+				DBObject dbobj = classConverter.encode(obj);
+				dbobj.put(ID_FIELD, context.getId(obj));
+				addToBulk(context, obj, dbobj);
+			}
+			saveContext.remove();
+			
+			flush(context);
+		} finally {
+			saveContext.remove();
+			// Objects, that haven't been inserted, are still new.
+			for(ObjectId id : context.newIds) {
+				cache.delete(id);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Returns the id of an object, that is written in bulk. New objects get
+	 * an id and are put to the cache, before they are written.
+	 */
+	private ObjectId assignId(Object obj, SaveContext context) {
+		ObjectId id = cache.getId(obj);
+		if(id == null) {
+			id = new ObjectId();
+			cache.put(id, obj);
+			context.newIds.add(id);
 		}
+		return id;
+	}
+	
+	/**
+	 * Adds an encoded object to the writes of a bulk save. New objects will be
+	 * inserted. Stored objects with a snapshot will only get their changed 
+	 * fields updated, if they have changed, like in {@link #saveObject(java.lang.Object)}.
+	 * Stored objects without a snapshot will be replaced.
+	 */
+	private void addToBulk(SaveContext context, Object obj, DBObject dbobj) {
+		String collection = collectionResolver.getCollectionForClass(obj.getClass());
+		ObjectId id = (ObjectId)dbobj.get(ID_FIELD);
+		Snapshot snapshot = config.getDirtyTrackingEnabled() ? snapshots.get(obj) : null;
+		if(context.newIds.contains(id)) {
+			addToBatch(context.inserts, collection, dbobj);
+		} else if(snapshot != null) {
+			DBObject set = new BasicDBObject();
+			DBObject unset = new BasicDBObject();
+			snapshot.diff(dbobj, set, unset);
+			if(!set.keySet().isEmpty() || !unset.keySet().isEmpty()) {
+				context.fieldUpdates.add(new FieldUpdate(collection, id, set, unset));
+			}
+		} else {
+			addToBatch(context.updates, collection, dbobj);
+		}
+		context.objects.add(obj);
+		context.documents.add(dbobj);
+	}
+	
+	/**
+	 * Writes all objects collected by a bulk save, with one write per collection
+	 * and {@link Config#getBulkWriteSize()} objects.
+	 */
+	private void flush(SaveContext context) {
+		
+		int bulkSize = config.getBulkWriteSize();
+		for(Map.Entry<String, List<DBObject>> entry : context.inserts.entrySet()) {
+			List<DBObject> dbobjs = entry.getValue();
+			for(int from = 0; from < dbobjs.size(); from += bulkSize) {
+				List<DBObject> chunk = dbobjs.subList(from, Math.min(from + bulkSize, dbobjs.size()));
+				dbhandler.onInsert(entry.getKey(), chunk);
+				for(DBObject dbobj : chunk) {
+					context.newIds.remove((ObjectId)dbobj.get(ID_FIELD));
+				}
+			}
+		}
+		for(Map.Entry<String, List<DBObject>> entry : context.updates.entrySet()) {
+			List<DBObject> dbobjs = entry.getValue();
+			for(int from = 0; from < dbobjs.size(); from += bulkSize) {
+				dbhandler.onUpdate(entry.getKey(), dbobjs.subList(from, Math.min(from + bulkSize, dbobjs.size())));
+			}
+			for(DBObject dbobj : dbobjs) {
+				documentCache.invalidate(entry.getKey(), dbobj.get(ID_FIELD));
+			}
+		}
+		// The driver cannot batch updates of single fields, so they are written one by one.
+		for(FieldUpdate update : context.fieldUpdates) {
+			dbhandler.onUpdateFields(update.collection, update.id, update.set, update.unset);
+			documentCache.invalidate(update.collection, update.id);
+		}
+		
+		for(int i = 0; i < context.objects.size(); i++) {
+			takeSnapshot(context.objects.get(i), context.documents.get(i));
+		}
+		
+	}
+	
+	private static void addToBatch(Map<String, List<DBObject>> batches, String collection, DBObject dbobj) {
+		List<DBObject> batch = batches.get(collection);
+		if(batch == null) {
+			batch = new ArrayList<DBObject>();
+			batches.put(collection, batch);
+		}
+		batch.add(dbobj);
 	}
 	
 	public void delete(Object obj) {
 		ObjectId id = cache.getId(obj);
 		if(id != null) {
-			dbhandler.onDelete(collectionResolver.getCollectionForClass(obj.getClass()), id);
+			String collection = collectionResolver.getCollectionForClass(obj.getClass());
+			dbhandler.onDelete(collection, id);
+			documentCache.invalidate(collection, id);
+			cache.delete(id);
+		}
+	}
+	
+	/**
+	 * Deletes several objects of the given class at once. In contrast to calling
+	 * {@link #delete(java.lang.Object)} for each object, the objects are deleted
+	 * with as few {@code $in} queries as possible. Objects, that have never
+	 * been read from or saved to this storage, are ignored.
+	 * 
+	 * @param clazz The class of the objects.
+	 * @param objects The objects to delete.
+	 * @return The number of deleted objects.
+	 */
+	public int deleteAll(Class<?> clazz, Collection<?> objects) {
+		List<ObjectId> ids = new ArrayList<ObjectId>(objects.size());
+		for(Object obj : objects) {
+			ObjectId id = (obj != null) ? cache.getId(obj) : null;
+			if(id != null) {
+				ids.add(id);
+			}
+		}
+		return deleteByIds(clazz, ids);
+	}
+	
+	/**
+	 * Deletes the objects of the given class with the given ids, without 
+	 * reading them. The ids are deleted with as few {@code $in} queries
+	 * as possible.
+	 * 
+	 * @param clazz The class of the objects.
+	 * @param ids The ids of the objects to delete.
+	 * @return The number of deleted objects.
+	 */
+	public int deleteByIds(Class<?> clazz, Collection<ObjectId> ids) {
+		
+		String collection = collectionResolver.getCollectionForClass(clazz);
+		List<ObjectId> unique = new ArrayList<ObjectId>(new LinkedHashSet<ObjectId>(ids));
+		unique.remove(null);
+		
+		int deleted = 0;
+		for(int from = 0; from < unique.size(); from += ReferenceResolver.MAX_IDS_PER_QUERY) {
+			List<ObjectId> chunk = unique.subList(from, 
+					Math.min(from + ReferenceResolver.MAX_IDS_PER_QUERY, unique.size()));
+			deleted += dbhandler.onDeleteAll(collection, 
+					new BasicDBObject(ID_FIELD, new BasicDBObject("$in", chunk)));
+			for(ObjectId id : chunk) {
+				documentCache.invalidate(collection, id);
+				cache.delete(id);
+			}
+		}
+		
+		return deleted;
+		
+	}
+	
+	/**
+	 * Deletes all objects, that match the given {@link Query}, without decoding
+	 * them. Only the ids of the matching objects are read, so they can be
+	 * removed from the caches of this storage. Sort, skip and limit of the 
+	 * query are respected.
+	 * 
+	 * @param query The query the deleted objects match.
+	 * @return The number of deleted objects.
+	 */
+	public int deleteWhere(Query<?> query) {
+		
+		Class<?> clazz = query.getType();
+		List<DBObject> dbobjects = dbhandler.onFind(collectionResolver.getCollectionForClass(clazz),
+				FieldList.valueOf(clazz, new String[0]), query.getQueryObject(), 
+				query.getSortObject(), query.getSkip(), query.getLimit());
+		
+		List<ObjectId> ids = new ArrayList<ObjectId>(dbobjects.size());
+		for(DBObject dbobj : dbobjects) {
+			ids.add((ObjectId)dbobj.get(ID_FIELD));
 		}
-		cache.delete(id);
+		
+		return deleteByIds(clazz, ids);
+		
 	}
 	
+	/**
+	 * Saves an object and all objects it references. Every object is only 
+	 * written once per save operation, no matter how often it is referenced.
+	 * Objects, that have already been visited by the running operation (or
+	 * will be written by the running {@link #saveMultiple(java.lang.Iterable)}),
+	 * are only referenced by their id.
+	 * 
+	 * @param obj The object to save.
+	 * @return The written document or a document only containing the id, 
+	 *		if the object has already been visited.
+	 */
 	DBObject saveObject(Object obj) {
 		
-		DBObject dbobj = classConverter.encode(obj);
-		ObjectId id = cache.getId(obj);
-		if(id != null) {
-			dbobj.put(ID_FIELD, id);
+		SaveContext context = saveContext.get();
+		boolean outermost = (context == null);
+		if(outermost) {
+			context = new SaveContext(false, false);
+			saveContext.set(context);
 		}
 		
-		dbhandler.onSave(collectionResolver.getCollectionForClass(obj.getClass()), dbobj, 
-				FieldList.valueOf(obj.getClass()));
+		try {
+			ObjectId visited = context.getId(obj);
+			if(visited != null) {
+				return new BasicDBObject(ID_FIELD, visited);
+			}
+			return writeObject(obj, context);
+		} finally {
+			if(outermost) {
+				saveContext.remove();
+			}
+		}
 		
+	}
+	
+	/**
+	 * Returns the id of an object, if it has been stored or is being saved
+	 * by the save operation running on this thread. Otherwise {@code null}
+	 * is returned.
+	 */
+	ObjectId getSavedId(Object obj) {
+		SaveContext context = saveContext.get();
+		ObjectId id = (context != null) ? context.getId(obj) : null;
+		return (id != null) ? id : cache.getId(obj);
+	}
+	
+	private DBObject writeObject(Object obj, SaveContext context) {
+		
+		// In graph mode every object is written in bulk, after the whole graph has been encoded.
+		if(context.graph) {
+			context.visit(obj, assignId(obj, context));
+			DBObject dbobj = classConverter.encode(obj);
+			dbobj.put(ID_FIELD, context.getId(obj));
+			addToBulk(context, obj, dbobj);
+			return dbobj;
+		}
+		
+		String collection = collectionResolver.getCollectionForClass(obj.getClass());
+		ObjectId id = cache.getId(obj);
 		if(id == null) {
-			id = (ObjectId)dbobj.get(ID_FIELD);
-			cache.put(id, obj);
+			return insertObject(obj, collection, context);
+		}
+		context.visit(obj, id);
+		
+		DBObject dbobj = classConverter.encode(obj);
+		dbobj.put(ID_FIELD, id);
+		
+		// Only write the fields, that have changed since the object has been read or saved.
+		Snapshot snapshot = config.getDirtyTrackingEnabled() ? snapshots.get(obj) : null;
+		if(snapshot != null) {
+			DBObject set = new BasicDBObject();
+			DBObject unset = new BasicDBObject();
+			snapshot.diff(dbobj, set, unset);
+			if(!set.keySet().isEmpty() || !unset.keySet().isEmpty()) {
+				dbhandler.onUpdateFields(collection, id, set, unset);
+				snapshots.put(obj, Snapshot.of(dbobj, FieldList.valueOf(obj.getClass())));
+			}
+			documentCache.invalidate(collection, id);
+			return dbobj;
+		}
+		
+		dbhandler.onSave(collection, dbobj, FieldList.valueOf(obj.getClass()));
+		documentCache.invalidate(collection, id);
+		takeSnapshot(obj, dbobj);
+		
+		return dbobj;
+	}
+	
+	/**
+	 * Writes a new object. The id is generated locally and put to the cache,
+	 * before the object is encoded, so objects referencing it in a cycle can
+	 * already point to it. Since the id is new, the document is inserted and 
+	 * doesn't need an upsert. If the object cannot be written, it is removed
+	 * from the cache again.
+	 */
+	private DBObject insertObject(Object obj, String collection, SaveContext context) {
+		
+		ObjectId id = new ObjectId();
+		cache.put(id, obj);
+		context.visit(obj, id);
+		
+		DBObject dbobj;
+		try {
+			dbobj = classConverter.encode(obj);
+			dbobj.put(ID_FIELD, id);
+			dbhandler.onInsert(collection, Collections.singletonList(dbobj));
+		} catch(RuntimeException ex) {
+			cache.delete(id);
+			throw ex;
 		}
 		
+		takeSnapshot(obj, dbobj);
+		
 		return dbobj;
 	}
 	
+	/**
+	 * Remembers the state of an object, as it has been read from or written
+	 * to database, if dirty tracking is enabled.
+	 * 
+	 * @param obj The object.
+	 * @param dbobj The document, that has been read or written for the object.
+	 */
+	void takeSnapshot(Object obj, DBObject dbobj) {
+		takeSnapshot(obj, dbobj, false);
+	}
+	
+	/**
+	 * Remembers the state of an object. That the object has only been loaded
+	 * partially is remembered even if dirty tracking is disabled.
+	 */
+	private void takeSnapshot(Object obj, DBObject dbobj, boolean partial) {
+		if(config.getDirtyTrackingEnabled()) {
+			snapshots.put(obj, Snapshot.of(dbobj, FieldList.valueOf(obj.getClass()), partial));
+		} else if(partial) {
+			snapshots.put(obj, Snapshot.PARTIAL);
+		} else {
+			snapshots.remove(obj);
+		}
+	}
+	
+	/**
+	 * Returns whether an object has only been loaded partially and hasn't 
+	 * been saved since (see {@link #findAll(java.lang.Class, java.lang.String[])}).
+	 */
+	private boolean isPartial(Object obj) {
+		Snapshot snapshot = snapshots.get(obj);
+		return snapshot != null && snapshot.isPartial();
+	}
+	
 	/**
 	 * This method is only needed for the jUnit tests to insert test objects into the Storage.
 	 * Don't use this method anywhere else.
 	 */
 	DBObject saveDBObject(DBObject dbobj, String collection) {	
 		dbhandler.onSave(collection, dbobj, null);
+		documentCache.invalidate(collection, dbobj.get(ID_FIELD));
 		return dbobj;
 	}
 	
@@ -207,71 +609,469 @@ public class Storage {
 		return dbhandler.onCreateRef(collectionResolver.getCollectionForClass(clazz), obj);
 	}
 	
+	/**
+	 * Returns the document cache of this storage.
+	 */
+	DocumentCache getDocumentCache() {
+		return documentCache;
+	}
+	
 	DBObject fetchRef(DBRef dbref) {
-		return dbhandler.onFetchRef(dbref);
+		return referenceResolver.fetch(dbref);
 	}
 	
 	public <T> List<T> findAll(Class<T> clazz) {
-		
-		List<T> objects = new ArrayList<T>();
+		return findAll(clazz, FieldList.valueOf(clazz));
+	}
+	
+	/**
+	 * Returns all objects of the given class, but only reads the given fields
+	 * from database. All other fields of the returned objects will keep the
+	 * value, that the default constructor assigned to them. Use this for large
+	 * objects, if you only need some of their fields.
+	 * 
+	 * Be aware that saving a partially loaded object will overwrite the fields
+	 * in database, that haven't been loaded.
+	 * 
+	 * @param clazz The class of the objects.
+	 * @param fields The names of the fields to load.
+	 * @return All objects of the given class.
+	 * 
+	 * @throws IllegalArgumentException If one of the fields isn't a persisted
+	 *		field of the class.
+	 */
+	public <T> List<T> findAll(Class<T> clazz, String... fields) {
+		return findAll(clazz, FieldList.valueOf(clazz, fields));
+	}
+	
+	private <T> List<T> findAll(Class<T> clazz, FieldList fieldList) {
 		
 		Collection<DBObject> dbobjects = dbhandler.onGet(collectionResolver.getCollectionForClass(clazz),
-				FieldList.valueOf(clazz));
+				fieldList);
+		
+		List<DBObject> dblist = (dbobjects instanceof List<?>) 
+				? (List<DBObject>)dbobjects : new ArrayList<DBObject>(dbobjects);
+		
+		return decodeAll(dblist, clazz, fieldList.size() < FieldList.valueOf(clazz).size());
 
-		List<DecodeThread<T>> threads = new LinkedList<DecodeThread<T>>();
+	}
 
-		for(DBObject dbobj : dbobjects) {
-			
-			DecodeThread<T> t = new DecodeThread<T>(dbobj, clazz);
-			
-			// If multithreading is enabled, start in new thread.
+	/**
+	 * Returns a page of the objects of the given class, in the order of the
+	 * given {@link Sort}. Sort, skip and limit are passed to the database, so
+	 * only the objects of the requested page will be read and decoded.
+	 *
+	 * Skipping objects still needs the database to walk over them, so for
+	 * deep pages use {@link #findAllAfter(java.lang.Class, de.inovex.jmom.Sort, java.lang.Object, int)}.
+	 *
+	 * @param clazz The class of the objects.
+	 * @param sort The order of the objects or {@code null} for no specific order.
+	 * @param skip The number of objects to skip.
+	 * @param limit The maximum number of objects to return or {@code 0} for no limit.
+	 * @return The objects of the requested page.
+	 *
+	 * @throws IllegalArgumentException If skip or limit is negative or the sort
+	 *		contains a field, that isn't a persisted field of the class.
+	 */
+	public <T> List<T> findAll(Class<T> clazz, Sort sort, int skip, int limit) {
+
+		if(skip < 0) {
+			throw new IllegalArgumentException("skip must not be negative.");
+		}
+		if(limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative.");
+		}
+
+		return find(clazz, new BasicDBObject(), sort, skip, limit);
+
+	}
+
+	/**
+	 * Returns the next page of objects of the given class, that follow the given
+	 * object in the order of the given {@link Sort}. Instead of skipping the
+	 * objects of all previous pages, the query starts right after the values of
+	 * the last object, so every page costs the same, no matter how deep it is.
+	 * The objects are additionally sorted by their id, so objects with equal
+	 * values in all sort fields are neither skipped nor returned twice.
+	 *
+	 * <pre>
+	 * List&lt;Order&gt; page = storage.findAllAfter(Order.class, sort, null, 50);
+	 * while(!page.isEmpty()) {
+	 *     ...
+	 *     page = storage.findAllAfter(Order.class, sort, page.get(page.size() - 1), 50);
+	 * }
+	 * </pre>
+	 *
+	 * @param clazz The class of the objects.
+	 * @param sort The order of the objects or {@code null} to sort by id.
+	 * @param last The last object of the previous page or {@code null} for the first page.
+	 * @param limit The maximum number of objects to return or {@code 0} for no limit.
+	 * @return The objects following the given object.
+	 *
+	 * @throws IllegalArgumentException If limit is negative, the sort contains a
+	 *		field, that isn't a pseudo primitive persisted field of the class, the
+	 *		last object has a {@code null} value in a sort field or hasn't been
+	 *		read from or saved to this storage.
+	 */
+	public <T> List<T> findAllAfter(Class<T> clazz, Sort sort, T last, int limit) {
+
+		if(limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative.");
+		}
+
+		Sort keyset = (sort != null) ? sort.withId() : Sort.BY_ID;
+		DBObject query = (last != null) ? getKeysetQuery(clazz, keyset, last) : new BasicDBObject();
+
+		return find(clazz, query, keyset, 0, limit);
+
+	}
+
+	/**
+	 * Returns a query for all objects, that follow the given object in the given
+	 * sort. For the fields {@code a, b, _id} this is:
+	 * {@code a > a0 || (a == a0 && b > b0) || (a == a0 && b == b0 && _id > id0)}.
+	 */
+	private DBObject getKeysetQuery(Class<?> clazz, Sort sort, Object last) {
+
+		ObjectId id = cache.getId(last);
+		if(id == null) {
+			throw new IllegalArgumentException("The last object hasn't been read from or saved to this storage.");
+		}
+
+		FieldList fieldList = FieldList.valueOf(clazz);
+		BasicDBList or = new BasicDBList();
+		DBObject equal = new BasicDBObject();
+
+		for(int i = 0; i < sort.size(); i++) {
+
+			String name = sort.getField(i);
+			Object value = Sort.ID.equals(name) ? id : getKeysetValue(fieldList, clazz, name, last);
+
+			DBObject clause = new BasicDBObject(equal.toMap());
+			clause.put(name, new BasicDBObject(sort.isAscending(i) ? "$gt" : "$lt", value));
+			or.add(clause);
+
+			equal.put(name, value);
+
+		}
+
+		return new BasicDBObject("$or", or);
+
+	}
+
+	/**
+	 * Reads the value of a sort field from an object, as it is stored in database.
+	 */
+	private static Object getKeysetValue(FieldList fieldList, Class<?> clazz, String name, Object obj) {
+
+		Field field = fieldList.getField(name);
+		if(field == null || !ReflectionUtil.isPseudoPrimitive(field.getType())) {
+			throw new IllegalArgumentException(String.format("Class %s has no pseudo primitive persisted field %s.",
+					clazz.getName(), name));
+		}
+
+		Object value;
+		try {
+			field.setAccessible(true);
+			value = field.get(obj);
+		} catch(IllegalAccessException ex) {
+			throw new IllegalArgumentException(String.format("Cannot read field %s.", name), ex);
+		}
+
+		if(value == null) {
+			throw new IllegalArgumentException(String.format("The sort field %s of the last object is null.", name));
+		}
+
+		return (value instanceof Character) ? value.toString() : value;
+
+	}
+
+	/**
+	 * Returns a new {@link Query} for objects of the given class. The conditions
+	 * of the query are passed to the database, so only matching objects will
+	 * be read and decoded.
+	 *
+	 * @param clazz The class of the objects.
+	 * @return A query without any conditions.
+	 */
+	public <T> Query<T> query(Class<T> clazz) {
+		return new Query<T>(this, clazz);
+	}
+
+	/**
+	 * Reads the objects of the given class, that match the query, from database
+	 * and decodes them.
+	 */
+	<T> List<T> find(Class<T> clazz, DBObject query, Sort sort, int skip, int limit) {
+
+		List<DBObject> dbobjects = dbhandler.onFind(collectionResolver.getCollectionForClass(clazz),
+				FieldList.valueOf(clazz), query, (sort != null) ? sort.toDBObject(clazz) : null, skip, limit);
+
+		return decodeAll(dbobjects, clazz);
+
+	}
+
+	/**
+	 * Returns an {@link ObjectCursor} over all objects of the given class.
+	 * In contrast to {@link #findAll(java.lang.Class)} the objects will be 
+	 * read and decoded in batches of {@link Config#getCursorBatchSize()} 
+	 * objects, while iterating over the cursor. So the memory needed doesn't
+	 * depend on the number of objects in the database.
+	 * 
+	 * @param clazz The class of the objects.
+	 * @return A cursor over all objects of that class.
+	 */
+	public <T> ObjectCursor<T> iterate(Class<T> clazz) {
+		return iterate(clazz, config.getCursorBatchSize());
+	}
+	
+	/**
+	 * Returns an {@link ObjectCursor} over all objects of the given class, that
+	 * reads and decodes the given number of objects at once.
+	 * 
+	 * @see #iterate(java.lang.Class) 
+	 * 
+	 * @param clazz The class of the objects.
+	 * @param batchSize The number of objects to read at once.
+	 * @return A cursor over all objects of that class.
+	 */
+	public <T> ObjectCursor<T> iterate(Class<T> clazz, int batchSize) {
+		
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1.");
+		}
+		
+		Iterator<DBObject> source = dbhandler.onIterate(collectionResolver.getCollectionForClass(clazz), 
+				FieldList.valueOf(clazz), batchSize);
+		
+		return new ObjectCursor<T>(this, source, clazz, batchSize);
+		
+	}
+	
+	/**
+	 * Decodes a list of {@link DBObject DBObjects} to objects of the given class
+	 * and stores them in the {@link Cache}. If multithreading is enabled, the
+	 * decoding will be distributed over the {@link DecodeExecutor} of this storage.
+	 * If reference prefetching is enabled, all referenced objects will be
+	 * fetched by the {@link ReferenceResolver} before.
+	 */
+	<T> List<T> decodeAll(List<DBObject> dbobjects, final Class<T> clazz) {
+		return decodeAll(dbobjects, clazz, false);
+	}
+	
+	/**
+	 * Decodes a list of {@link DBObject DBObjects}, that might only contain
+	 * some of the fields of the class.
+	 * 
+	 * @param partial Whether the documents have been read with a projection,
+	 *		that doesn't contain all fields.
+	 */
+	private <T> List<T> decodeAll(List<DBObject> dbobjects, final Class<T> clazz, boolean partial) {
+		
+		DecodeExecutor.Decoder<DBObject, T> decoder = new DecodeExecutor.Decoder<DBObject, T>() {
+			@Override
+			public T decode(DBObject dbobj) {
+				return classConverter.decode(dbobj, clazz);
+			}
+		};
+		
+		Collection<DocumentCache.Key> prefetched = config.getReferencePrefetchEnabled() 
+				? referenceResolver.prefetch(collectionResolver.getCollectionForClass(clazz), dbobjects, partial)
+				: Collections.<DocumentCache.Key>emptyList();
+		
+		List<T> objects;
+		try {
 			if(config.getMultithreadingEnabled()) {
-				t.start();
+				objects = getDecodeExecutor().decodeAll(dbobjects, decoder);
 			} else {
-				t.run();
+				objects = new ArrayList<T>(dbobjects.size());
+				for(DBObject dbobj : dbobjects) {
+					objects.add(decoder.decode(dbobj));
+				}
 			}
-			
-			// Add thread to list
-			threads.add(t);
-			
+		} finally {
+			referenceResolver.release(prefetched);
 		}
 		
-		// Wait for every thread in list to finish and add its result to the object list.
-		for(DecodeThread<T> t : threads) {
-			
-			try {
-				t.join();
-				T obj = t.getResult();
-				objects.add(obj);
-				cache.put(t.getObjectId(), obj);
-			} catch (InterruptedException ex) {
-				Logger.getLogger(Storage.class.getName()).log(Level.SEVERE, null, ex);
-			}
-			
+		Iterator<DBObject> dbit = dbobjects.iterator();
+		for(T obj : objects) {
+			DBObject dbobj = dbit.next();
+			cache.put((ObjectId)dbobj.get(ID_FIELD), obj);
+			takeSnapshot(obj, dbobj, partial);
 		}
 		
 		return objects;
-
+		
 	}
 	
+	/**
+	 * Returns the {@link DecodeExecutor} of this storage. It will be created
+	 * the first time it's needed, so storages that don't use multithreading
+	 * won't start any threads.
+	 */
+	synchronized DecodeExecutor getDecodeExecutor() {
+		if(decodeExecutor == null) {
+			decodeExecutor = new DecodeExecutor(config);
+		}
+		return decodeExecutor;
+	}
+	
+	/**
+	 * Returns the object of the given class with the given id. If the
+	 * {@link Config#getDocumentCacheSize() document cache} is enabled, the
+	 * document will only be read from database, if it isn't cached.
+	 * 
+	 * The stored document is always decoded to a new object, so changes of 
+	 * an object with the same id, that haven't been saved, aren't visible in
+	 * the returned object. In contrast {@link #findByObjectIds(java.lang.Class, java.util.Collection)}
+	 * returns the objects in memory.
+	 * 
+	 * @param clazz The class of the object.
+	 * @param id The id of the object.
+	 * @return The object or {@code null} if there is no object with that id.
+	 */
 	public <T> T findByObjectId(Class<T> clazz, ObjectId id) {
-		DBObject dbo = dbhandler.onGetById(collectionResolver.getCollectionForClass(clazz), id);
-		T obj = classConverter.decode(dbo, clazz);
-		cache.put(id, obj);
-		return obj;
+		String collection = collectionResolver.getCollectionForClass(clazz);
+		DBObject dbo = documentCache.get(collection, id);
+		if(dbo == null) {
+			long stamp = documentCache.getStamp();
+			dbo = dbhandler.onGetById(collection, id);
+			if(dbo == null) {
+				return null;
+			}
+			documentCache.put(collection, dbo, stamp);
+		}
+		return decodeAll(Collections.singletonList(dbo), clazz).get(0);
 	}
 	
-	<T> T convertObject(DBObject dbobj, Class<T> clazz) {
+	/**
+	 * Returns the objects of the given class with the given ids. Objects, that
+	 * are still in the {@link Cache} or the {@link DocumentCache}, won't be read
+	 * again. All other objects are read with as few {@code $in} queries as possible.
+	 * 
+	 * For objects in the {@link Cache} this works like an identity map: the
+	 * object in memory is returned as it is, including changes, that haven't
+	 * been saved yet. Objects, that have only been loaded partially with
+	 * {@link #findAll(java.lang.Class, java.lang.String[])}, are read again,
+	 * so all returned objects are complete. Use {@link #findByObjectId(java.lang.Class, org.bson.types.ObjectId)}
+	 * to get the stored state of an object.
+	 * 
+	 * @param clazz The class of the objects.
+	 * @param ids The ids of the objects.
+	 * @return The objects in the order of the given ids. Ids without an object
+	 *		of that class are left out.
+	 */
+	public <T> List<T> findByObjectIds(Class<T> clazz, Collection<ObjectId> ids) {
+		
+		String collection = collectionResolver.getCollectionForClass(clazz);
+		Map<ObjectId, T> found = new HashMap<ObjectId, T>();
+		List<DBObject> dbobjects = new ArrayList<DBObject>();
+		List<ObjectId> missing = new ArrayList<ObjectId>();
+		
+		for(ObjectId id : new LinkedHashSet<ObjectId>(ids)) {
+			if(id == null) {
+				continue;
+			}
+			Object cached = cache.getObject(id);
+			if(clazz.isInstance(cached) && !isPartial(cached)) {
+				found.put(id, clazz.cast(cached));
+				continue;
+			}
+			DBObject dbobj = documentCache.get(collection, id);
+			if(dbobj != null) {
+				dbobjects.add(dbobj);
+			} else {
+				missing.add(id);
+			}
+		}
 		
-		if(dbobj == null)
-			return null;
+		for(int from = 0; from < missing.size(); from += ReferenceResolver.MAX_IDS_PER_QUERY) {
+			List<ObjectId> chunk = missing.subList(from, 
+					Math.min(from + ReferenceResolver.MAX_IDS_PER_QUERY, missing.size()));
+			long stamp = documentCache.getStamp();
+			for(DBObject dbobj : dbhandler.onGetByIds(collection, chunk)) {
+				documentCache.put(collection, dbobj, stamp);
+				dbobjects.add(dbobj);
+			}
+		}
 		
-		Object get = cache.getObject((ObjectId)dbobj.get(ID_FIELD));
-		if(get != null && (get.getClass() == clazz)) {
-			return (T)get;
+		List<T> decoded = decodeAll(dbobjects, clazz);
+		for(int i = 0; i < decoded.size(); i++) {
+			found.put((ObjectId)dbobjects.get(i).get(ID_FIELD), decoded.get(i));
 		}
 		
-		return classConverter.decode(dbobj, clazz);
+		List<T> objects = new ArrayList<T>(ids.size());
+		for(ObjectId id : ids) {
+			T obj = found.get(id);
+			if(obj != null) {
+				objects.add(obj);
+			}
+		}
+		return objects;
+		
+	}
+	
+	/**
+	 * Returns the number of stored objects of the given class. The objects are
+	 * counted by the database, without reading them.
+	 * 
+	 * @param clazz The class of the objects.
+	 * @return The number of objects of that class.
+	 */
+	public long count(Class<?> clazz) {
+		return dbhandler.onCount(collectionResolver.getCollectionForClass(clazz), new BasicDBObject());
+	}
+	
+	/**
+	 * Returns the number of stored objects, that match the conditions of the 
+	 * given {@link Query}. Sort, skip and limit of the query are ignored.
+	 * The objects are counted by the database, without reading them.
+	 * 
+	 * @param query The query the objects match.
+	 * @return The number of matching objects.
+	 */
+	public long count(Query<?> query) {
+		return dbhandler.onCount(collectionResolver.getCollectionForClass(query.getType()), 
+				query.getQueryObject());
+	}
+	
+	/**
+	 * Returns whether an object of the given class with the given id is stored.
+	 * If the {@link Config#getDocumentCacheSize() document cache} contains the
+	 * object, no query will be sent to database.
+	 * 
+	 * @param clazz The class of the object.
+	 * @param id The id of the object.
+	 * @return Whether the object exists.
+	 */
+	public boolean exists(Class<?> clazz, ObjectId id) {
+		String collection = collectionResolver.getCollectionForClass(clazz);
+		if(documentCache.get(collection, id) != null) {
+			return true;
+		}
+		return dbhandler.onExists(collection, new BasicDBObject(ID_FIELD, id));
+	}
+	
+	/**
+	 * Returns the object for a referenced document. An object of the class, 
+	 * that is still in the {@link Cache}, is returned as it is and keeps its
+	 * snapshot, so an object, that has only been loaded partially, stays
+	 * partial. Otherwise the document is decoded to a new object, that is put
+	 * to the cache together with a snapshot of the document.
+	 */
+	Object decodeReference(DBObject dbobj, Class<?> clazz) {
+		
+		ObjectId id = (ObjectId)dbobj.get(ID_FIELD);
+		Object cached = cache.getObject(id);
+		if(cached != null && cached.getClass() == clazz) {
+			return cached;
+		}
+		
+		Object obj = classConverter.decode(dbobj, clazz);
+		cache.put(id, obj);
+		takeSnapshot(obj, dbobj);
+		return obj;
+		
 	}
 	
 	public static interface Cache {
@@ -285,103 +1085,451 @@ public class Storage {
 		 * @param id The {@link ObjectId} of the object.
 		 * @return The {@link Object} for the given {@code ObjectId} or {@code null}.
 		 */
-		public Object getObject(ObjectId id);
+		public Object getObject(ObjectId id);
+		
+		/**
+		 * Gets the {@link ObjectId} of a given {@link Object}. This will return
+		 * either the object's id or {@code null}, if the object has no 
+		 * {@code ObjectId}, because it hasn't been stored to database yet.
+		 *
+		 * @param obj The {@link Object} to get the {@link ObjectId id} for.
+		 * @return The {@link ObjectId} of the given object or {@code null}.
+		 */
+		public ObjectId getId(Object object);
+		
+		/**
+		 * Stores a new {@link Object} and its {@link ObjectId} in the cache.
+		 * That object will now be returned querying for its {@link ObjectId}
+		 * until a new object will be put to database.
+		 * 
+		 * @param id The id of the object.
+		 * @param obj The object itself. 
+		 */
+		public void put(ObjectId id, Object object);
+		
+		/**
+		 * Deletes an {@link ObjectId} and its reference from cache.
+		 */
+		public void delete(ObjectId id);
+		
+	}
+	
+	/**
+	 * Since the mapper cannot add an {@code _id} field to an object, once it is
+	 * saved, it need to store a mapping between {@link ObjectId ObjectIds} and
+	 * {@link Object Objects}. This cache handles this mapping.
+	 * 
+	 * Objects are identified by their identity, not by {@code equals}, so 
+	 * objects with a mutable or expensive {@code hashCode} can be cached too.
+	 * Every object is held by an {@link Entry}, that is a weak reference to 
+	 * the object and knows the object's id. The entries are stored in a hash
+	 * table by the object's identity hash code, and in an index by their id.
+	 * So looking up, putting and deleting objects takes constant time. The
+	 * index is an {@link ObjectIdMap}, that stores the ids as primitives, and
+	 * the entries store the id as primitives too, so the cache doesn't hold
+	 * any {@link ObjectId} objects.
+	 * 
+	 * Once an object has been cleared by the GC, its entry is put to a
+	 * {@link ReferenceQueue}. The queue is drained on every write to the cache,
+	 * so the cache only holds entries of objects, that are still alive.
+	 * 
+	 * The cache is safe to be used by several threads at once (e.g. when
+	 * objects are decoded on several threads). The hash table and the index 
+	 * are split into several stripes, each guarded by its own lock, so threads
+	 * only block each other, when they access the same stripe. Locks of the 
+	 * index are always acquired before locks of the hash table.
+	 */
+	public static class DefaultCache implements Cache {
+		
+		/**
+		 * The number of stripes the hash table is split into. 
+		 * Must be a power of two.
+		 */
+		private static final int STRIPES = 16;
+		
+		/**
+		 * The entries of all cached objects by the object's identity hash code.
+		 */
+		private final Stripe[] stripes = new Stripe[STRIPES];
+		
+		/**
+		 * This stores the entry of the last object in memory, that was created
+		 * for a specific ObjectId. This is needed to be stored, to have a unique
+		 * ObjectId to Object mapping, even when the user holds several objects 
+		 * with the same ObjectId in memory. The entries of older objects with the
+		 * same id are linked from that entry.
+		 */
+		private final ObjectIdMap<Entry>[] lastObject;
+		
+		/**
+		 * The entries of all objects, that have been cleared by the GC.
+		 */
+		private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+		
+		public DefaultCache() {
+			// Arrays of a generic type can only be created raw.
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			ObjectIdMap<Entry>[] maps = new ObjectIdMap[STRIPES];
+			lastObject = maps;
+			for(int i = 0; i < STRIPES; i++) {
+				stripes[i] = new Stripe();
+				lastObject[i] = new ObjectIdMap<Entry>();
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Object getObject(ObjectId id) {
+			ObjectIdMap<Entry> index = getIndex(ObjectIdMap.hash(id));
+			Entry entry;
+			synchronized(index) {
+				entry = index.get(id);
+			}
+			return entry == null ? null : entry.get();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public ObjectId getId(Object obj) {
+			int hash = System.identityHashCode(obj);
+			Entry entry = getStripe(hash).find(obj, hash);
+			return entry == null ? null : new ObjectId(entry.time, entry.machine, entry.inc);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void put(ObjectId id, Object obj) {
+			
+			expungeStaleEntries();
+			
+			ObjectIdMap<Entry> index = getIndex(ObjectIdMap.hash(id));
+			synchronized(index) {
+				
+				Entry last = index.get(id);
+				if(last != null && last.get() == obj) {
+					// Object is already the last object for that id
+					return;
+				}
+
+				int hash = System.identityHashCode(obj);
+				Entry entry = new Entry(obj, id, hash, queue);
+				entry.previous = skipRemoved(last);
+				getStripe(hash).add(entry);
+				index.put(id, entry);
+				
+			}
+			
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void delete(ObjectId id) {
+			expungeStaleEntries();
+			if(id == null) {
+				return;
+			}
+			ObjectIdMap<Entry> index = getIndex(ObjectIdMap.hash(id));
+			synchronized(index) {
+				Entry entry = index.remove(id);
+				while(entry != null) {
+					getStripe(entry.hash).remove(entry);
+					entry = entry.previous;
+				}
+			}
+		}
+		
+		/**
+		 * Returns the number of objects in this cache. Objects, that have been
+		 * cleared by the GC, but haven't been removed yet, will be removed before.
+		 * 
+		 * @return The number of cached objects.
+		 */
+		public int size() {
+			expungeStaleEntries();
+			int size = 0;
+			for(Stripe stripe : stripes) {
+				size += stripe.size();
+			}
+			return size;
+		}
 		
 		/**
-		 * Gets the {@link ObjectId} of a given {@link Object}. This will return
-		 * either the object's id or {@code null}, if the object has no 
-		 * {@code ObjectId}, because it hasn't been stored to database yet.
-		 *
-		 * @param obj The {@link Object} to get the {@link ObjectId id} for.
-		 * @return The {@link ObjectId} of the given object or {@code null}.
+		 * Removes the entries of all objects, that have been cleared by the GC.
+		 * If such an entry is the last entry of its id, the next older entry,
+		 * that is still cached, will become the last entry.
 		 */
-		public ObjectId getId(Object object);
+		private void expungeStaleEntries() {
+			Reference<?> ref;
+			while((ref = queue.poll()) != null) {
+				Entry entry = (Entry)ref;
+				ObjectIdMap<Entry> index = getIndex(ObjectIdMap.hash(entry.time, entry.machine, entry.inc));
+				synchronized(index) {
+					getStripe(entry.hash).remove(entry);
+					if(index.get(entry.time, entry.machine, entry.inc) == entry) {
+						Entry previous = skipRemoved(entry.previous);
+						if(previous == null) {
+							index.remove(entry.time, entry.machine, entry.inc, entry);
+						} else {
+							index.put(entry.time, entry.machine, entry.inc, previous);
+						}
+					}
+				}
+			}
+		}
 		
 		/**
-		 * Stores a new {@link Object} and its {@link ObjectId} in the cache.
-		 * That object will now be returned querying for its {@link ObjectId}
-		 * until a new object will be put to database.
-		 * 
-		 * @param id The id of the object.
-		 * @param obj The object itself. 
+		 * Returns the first entry in the chain of older entries, starting at the
+		 * given entry, that hasn't been removed from the hash table.
 		 */
-		public void put(ObjectId id, Object object);
+		private static Entry skipRemoved(Entry entry) {
+			while(entry != null && entry.removed) {
+				entry = entry.previous;
+			}
+			return entry;
+		}
+		
+		private ObjectIdMap<Entry> getIndex(int hash) {
+			return lastObject[hash & (STRIPES - 1)];
+		}
+		
+		private Stripe getStripe(int hash) {
+			// Spread the high bits, so hash codes differing only there use different stripes
+			return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+		}
 		
 		/**
-		 * Deletes an {@link ObjectId} and its reference from cache.
+		 * Holds a cached object and its id. 
 		 */
-		public void delete(ObjectId id);
+		private static final class Entry extends WeakReference<Object> {
+			
+			/*
+			 * The parts of the object's id.
+			 */
+			private final int time;
+			private final int machine;
+			private final int inc;
+			
+			private final int hash;
+			
+			/**
+			 * The next entry in the same bucket of the hash table.
+			 * Guarded by the lock of the stripe.
+			 */
+			private Entry next;
+			
+			/**
+			 * The entry of the object, that has been put before for the same id.
+			 * Guarded by the lock of the index stripe of the id.
+			 */
+			private Entry previous;
+			
+			/**
+			 * Whether this entry has been removed from the hash table.
+			 */
+			private volatile boolean removed;
+			
+			Entry(Object obj, ObjectId id, int hash, ReferenceQueue<Object> queue) {
+				super(obj, queue);
+				this.time = id._time();
+				this.machine = id._machine();
+				this.inc = id._inc();
+				this.hash = hash;
+			}
+			
+		}
 		
-	}
+		/**
+		 * A part of the hash table, containing all entries, whose hash code
+		 * maps to this stripe. Collisions are chained in the buckets.
+		 */
+		private static final class Stripe {
+			
+			private Entry[] table = new Entry[16];
+			private int size;
+			
+			/**
+			 * Returns the entry of the given object or {@code null}.
+			 */
+			synchronized Entry find(Object obj, int hash) {
+				for(Entry e = table[indexFor(hash, table.length)]; e != null; e = e.next) {
+					if(e.hash == hash && e.get() == obj) {
+						return e;
+					}
+				}
+				return null;
+			}
+			
+			/**
+			 * Adds an entry and removes any older entry of the same object. 
+			 */
+			synchronized void add(Entry entry) {
+				
+				Object obj = entry.get();
+				int index = indexFor(entry.hash, table.length);
+				
+				Entry prev = null;
+				for(Entry e = table[index]; e != null; prev = e, e = e.next) {
+					if(e.hash == entry.hash && e.get() == obj) {
+						if(prev == null) {
+							table[index] = e.next;
+						} else {
+							prev.next = e.next;
+						}
+						e.removed = true;
+						size--;
+						break;
+					}
+				}
+				
+				entry.next = table[index];
+				table[index] = entry;
+				if(++size > table.length * 3 / 4) {
+					resize();
+				}
+				
+			}
+			
+			/**
+			 * Removes exactly the given entry, if it is still in the table.
+			 */
+			synchronized void remove(Entry entry) {
+				int index = indexFor(entry.hash, table.length);
+				Entry prev = null;
+				for(Entry e = table[index]; e != null; prev = e, e = e.next) {
+					if(e == entry) {
+						if(prev == null) {
+							table[index] = e.next;
+						} else {
+							prev.next = e.next;
+						}
+						e.removed = true;
+						size--;
+						return;
+					}
+				}
+			}
+			
+			synchronized int size() {
+				return size;
+			}
+			
+			private void resize() {
+				Entry[] newTable = new Entry[table.length * 2];
+				for(Entry e : table) {
+					while(e != null) {
+						Entry next = e.next;
+						int index = indexFor(e.hash, newTable.length);
+						e.next = newTable[index];
+						newTable[index] = e;
+						e = next;
+					}
+				}
+				table = newTable;
+			}
+			
+			private static int indexFor(int hash, int length) {
+				// The lowest bits have been used to select the stripe
+				return (hash >>> 4) & (length - 1);
+			}
+			
+		}
+		
+	}	
 	
 	/**
-	 * Since the mapper cannot add an {@code _id} field to an object, once it is
-	 * saved, it need to store a mapping between {@link ObjectId ObjectIds} and
-	 * {@link Object Objects}. This cache handles this mapping.
+	 * A {@code SaveContext} belongs to a single save operation (a call to 
+	 * {@link Storage#save(java.lang.Object)}, {@link Storage#saveMultiple(java.lang.Iterable)}
+	 * or {@link Storage#saveGraph(java.lang.Iterable)}) and holds all objects, that
+	 * have been visited by it, with their ids. The objects are compared by identity,
+	 * so objects with a mutable {@code hashCode} can be saved too. Bulk saves
+	 * also collect their writes in the context.
 	 */
-	public static class DefaultCache implements Cache {
+	private static final class SaveContext {
 		
-		/**
-		 * This stores the ObjectId of each Object. It uses a WeakHashMap, so
-		 * the entry will be deleted, whenever the object isn't used anymore.
-		 */
-		private WeakHashMap<Object, ObjectId> objectIds = new WeakHashMap<Object, ObjectId>();
+		private final Map<Object, ObjectId> visited = new IdentityHashMap<Object, ObjectId>();
 		
 		/**
-		 * This stores the last object in memory, that was created for a specific 
-		 * ObjectId. This is needed to be stored, to have a unique ObjectId to 
-		 * Object mapping, even when the user holds several objects with the same
-		 * ObjectId in memory. This stores only a WeakReference to the object,
-		 * so that this map isn't preventing the object to be cleared by the
-		 * GC, if the user doesn't use it anymore.
+		 * Whether all objects reached by this operation are written in bulk.
 		 */
-		private HashMap<ObjectId, WeakReference<Object>> lastObject 
-				= new HashMap<ObjectId, WeakReference<Object>>();
+		final boolean graph;
 		
-		/**
-		 * {@inheritDoc}
+		/*
+		 * The writes collected by a bulk save. Updates hold the stored objects,
+		 * that are replaced, fieldUpdates the changed fields of stored objects
+		 * with a snapshot. New objects, that haven't been inserted yet, are held
+		 * in newIds. The objects and documents lists hold every encoded object 
+		 * with its document, for the snapshots.
 		 */
-		@Override
-		public Object getObject(ObjectId id) {
-			WeakReference<Object> ref = lastObject.get(id);
-			if(ref == null) return null;
-			Object obj = ref.get(); 
-			if(obj == null) {
-				lastObject.remove(id);
+		final Map<String, List<DBObject>> inserts;
+		final Map<String, List<DBObject>> updates;
+		final List<FieldUpdate> fieldUpdates;
+		final Set<ObjectId> newIds;
+		final List<Object> objects;
+		final List<DBObject> documents;
+		
+		SaveContext(boolean bulk, boolean graph) {
+			this.graph = graph;
+			if(bulk) {
+				inserts = new LinkedHashMap<String, List<DBObject>>();
+				updates = new LinkedHashMap<String, List<DBObject>>();
+				fieldUpdates = new ArrayList<FieldUpdate>();
+				newIds = new HashSet<ObjectId>();
+				objects = new ArrayList<Object>();
+				documents = new ArrayList<DBObject>();
+			} else {
+				inserts = null;
+				updates = null;
+				fieldUpdates = null;
+				newIds = null;
+				objects = null;
+				documents = null;
 			}
-			return obj;
 		}
 		
-		
 		/**
-		 * {@inheritDoc}
+		 * Returns the id of an object, that has been visited by this operation
+		 * or {@code null} if it hasn't been visited yet.
 		 */
-		@Override
-		public ObjectId getId(Object obj) {
-			return objectIds.get(obj);
+		ObjectId getId(Object obj) {
+			return visited.get(obj);
 		}
-
+		
 		/**
-		 * {@inheritDoc}
+		 * Marks an object as visited, so it won't be written again by this operation.
 		 */
-		@Override
-		public void put(ObjectId id, Object obj) {	
-			objectIds.put(obj, id);
-			lastObject.put(id, new WeakReference<Object>(obj));		
+		void visit(Object obj, ObjectId id) {
+			visited.put(obj, id);
 		}
 		
-		@Override
-		public void delete(ObjectId id) {
-			lastObject.remove(id);
-			for(Map.Entry<Object, ObjectId> entry : objectIds.entrySet()) {
-				if(entry.getValue().equals(id)) {
-					objectIds.remove(entry.getKey());
-					break;
-				}
-			}
+	}
+	
+	/**
+	 * The changed fields of a stored object, that a bulk save writes with
+	 * {@code $set} and {@code $unset}.
+	 */
+	private static final class FieldUpdate {
+		
+		final String collection;
+		final ObjectId id;
+		final DBObject set;
+		final DBObject unset;
+		
+		FieldUpdate(String collection, ObjectId id, DBObject set, DBObject unset) {
+			this.collection = collection;
+			this.id = id;
+			this.set = set;
+			this.unset = unset;
 		}
 		
-	}	
+	}
 	
 	/**
 	 * Changes the {@link CollectionResolver} that is used to look up the collection
@@ -515,14 +1663,73 @@ public class Storage {
 		 */
 		void onSave(String collection, DBObject dbobj, FieldList fieldList);
 		
+		/**
+		 * This method is called, whenever one or more new objects should be 
+		 * stored into database. Every {@link DBObject} already contains an 
+		 * {@code _id} field, that must be used for the stored object. The 
+		 * implementation should write all objects with as few database operations
+		 * as possible.
+		 * 
+		 * @param collection The name of the collection to insert the objects into.
+		 * @param dbobjs The objects to insert.
+		 */
+		void onInsert(String collection, List<DBObject> dbobjs);
+		
+		/**
+		 * This method is called, whenever several objects, that have already been
+		 * stored, should be written to database at once. Every {@link DBObject}
+		 * contains the {@code _id} field of the stored object, that it should
+		 * replace. The implementation should write all objects with as few database
+		 * operations as possible.
+		 * 
+		 * @param collection The name of the collection the objects are stored in.
+		 * @param dbobjs The objects to write.
+		 */
+		void onUpdate(String collection, List<DBObject> dbobjs);
+		
 		/**
 		 * This method must return a collection of {@link DBObject DBObjects} from
-		 * the given collection.
+		 * the given collection. The objects only need to contain the fields of
+		 * the given {@link FieldList}, so the implementation should only read
+		 * these fields from database (see {@link FieldList#getProjection()}).
 		 * 
 		 * @param collection The collection to catch all objects from.
+		 * @param fieldList The fields, that need to be read.
 		 * @return A collection of all {@link DBObject} from this collection.
 		 */
 		Collection<DBObject> onGet(String collection, FieldList fieldList);
+
+		/**
+		 * This method must return the {@link DBObject DBObjects} from the given
+		 * collection, that match the given query, in the given order. The first
+		 * {@code skip} matching objects must be skipped and at most {@code limit}
+		 * objects returned. The implementation should pass all of these to
+		 * the database, so only the requested objects will be read.
+		 *
+		 * @param collection The collection to read the objects from.
+		 * @param fieldList The fields, that need to be read.
+		 * @param query The query the objects must match. An empty query matches all objects.
+		 * @param sort The sort document or {@code null} for no specific order.
+		 * @param skip The number of objects to skip.
+		 * @param limit The maximum number of objects to return or {@code 0} for no limit.
+		 * @return The matching objects in the requested order.
+		 */
+		List<DBObject> onFind(String collection, FieldList fieldList, DBObject query,
+				DBObject sort, int skip, int limit);
+
+		/**
+		 * This method must return an {@link Iterator} over all {@link DBObject DBObjects}
+		 * from the given collection. In contrast to {@link #onGet(java.lang.String, de.inovex.jmom.FieldList)}
+		 * the objects should be read lazily from database, while iterating. 
+		 * If the returned iterator also implements {@link java.io.Closeable}, it will
+		 * be closed, when the iteration has finished or has been aborted.
+		 * 
+		 * @param collection The collection to iterate over.
+		 * @param fieldList The fields, that need to be read.
+		 * @param batchSize The number of objects, that will be read at once.
+		 * @return An iterator over all {@link DBObject DBObjects} in the collection.
+		 */
+		Iterator<DBObject> onIterate(String collection, FieldList fieldList, int batchSize);
 		
 		/**
 		 * This method must return an object by its {@link ObjectId}. Since {@link ObjectId ObjectIds}
@@ -534,6 +1741,17 @@ public class Storage {
 		 */
 		DBObject onGetById(String collection, ObjectId id);
 		
+		/**
+		 * This method must return all objects with the given {@link ObjectId ObjectIds}
+		 * from the given collection. The order of the returned objects doesn't
+		 * matter. Ids, that don't exist in the collection, should be ignored.
+		 * 
+		 * @param collection The name of the collection.
+		 * @param ids The ids of the objects, that should be returned.
+		 * @return All objects with one of the given ids.
+		 */
+		Collection<DBObject> onGetByIds(String collection, Collection<ObjectId> ids);
+		
 		/**
 		 * This method is called, whenever a {@link DBRef} to another object needs to 
 		 * be created. The returning reference must point to the given {@link DBObject}
@@ -564,6 +1782,53 @@ public class Storage {
 		 */
 		void onDelete(String collection, ObjectId id);
 		
+		/**
+		 * This method is called, whenever several objects should be deleted from
+		 * database at once. All objects of the collection, that match the given
+		 * query, must be deleted with a single database operation.
+		 * 
+		 * @param collection The name of the collection.
+		 * @param query The query the deleted objects match.
+		 * @return The number of deleted objects.
+		 */
+		int onDeleteAll(String collection, DBObject query);
+		
+		/**
+		 * This method is called, whenever only some fields of an already stored
+		 * object have changed. The implementation must set the fields in {@code set}
+		 * to their new values and remove the fields in {@code unset} from the
+		 * object, without replacing the whole object. At least one of them contains 
+		 * a field.
+		 * 
+		 * @param collection The name of the collection the object is stored in.
+		 * @param id The {@link ObjectId} of the object.
+		 * @param set The fields to set with their new values.
+		 * @param unset The fields to remove.
+		 */
+		void onUpdateFields(String collection, ObjectId id, DBObject set, DBObject unset);
+		
+		/**
+		 * This method must return the number of objects in the given collection,
+		 * that match the given query. The objects should be counted by the
+		 * database, without reading them.
+		 * 
+		 * @param collection The name of the collection.
+		 * @param query The query the counted objects match. An empty query matches all objects.
+		 * @return The number of matching objects.
+		 */
+		long onCount(String collection, DBObject query);
+		
+		/**
+		 * This method must return whether the given collection contains at least 
+		 * one object, that matches the given query. The implementation should 
+		 * stop searching at the first match and not read the object itself.
+		 * 
+		 * @param collection The name of the collection.
+		 * @param query The query the object must match.
+		 * @return Whether a matching object exists.
+		 */
+		boolean onExists(String collection, DBObject query);
+		
 	}
 	
 	/**
@@ -571,7 +1836,7 @@ public class Storage {
 	 * all the action on a {@link DB}. This will be used when the user creates
 	 * a storage and don't pass an own implementation of {@code DBHandler} to it.
 	 */
-	private static class MongoDBHandler implements DBHandler {
+	static class MongoDBHandler implements DBHandler {
 
 		private DB db;
 		
@@ -587,6 +1852,34 @@ public class Storage {
 			db.getCollection(collection).save(dbobj);
 		}
 
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void onInsert(String collection, List<DBObject> dbobjs) {
+			db.getCollection(collection).insert(dbobjs);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * 
+		 * The driver has no bulk update, so the updates are sent one after 
+		 * another over the same connection, using the write concern of the
+		 * collection.
+		 */
+		@Override
+		public void onUpdate(String collection, List<DBObject> dbobjs) {
+			DBCollection coll = db.getCollection(collection);
+			db.requestStart();
+			try {
+				for(DBObject dbobj : dbobjs) {
+					coll.save(dbobj);
+				}
+			} finally {
+				db.requestDone();
+			}
+		}
+
 		/**
 		 * {@inheritDoc}
 		 */
@@ -597,7 +1890,7 @@ public class Storage {
 			
 			DBCursor cur = null;
 			try {
-				cur = db.getCollection(collection).find();
+				cur = db.getCollection(collection).find(new BasicDBObject(), getProjection(fieldlist));
 			
 				for(DBObject dbobj : cur) {
 					objects.add(dbobj);
@@ -611,6 +1904,44 @@ public class Storage {
 			
 		}
 
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public List<DBObject> onFind(String collection, FieldList fieldlist, DBObject query,
+				DBObject sort, int skip, int limit) {
+
+			List<DBObject> objects = new ArrayList<DBObject>(limit > 0 ? limit : 10);
+
+			DBCursor cur = null;
+			try {
+				cur = db.getCollection(collection).find(query, getProjection(fieldlist));
+				if(sort != null) {
+					cur.sort(sort);
+				}
+				cur.skip(skip).limit(limit);
+
+				for(DBObject dbobj : cur) {
+					objects.add(dbobj);
+				}
+			} finally {
+				if(cur != null)
+					cur.close();
+			}
+
+			return objects;
+
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Iterator<DBObject> onIterate(String collection, FieldList fieldlist, int batchSize) {
+			return db.getCollection(collection).find(new BasicDBObject(), getProjection(fieldlist))
+					.batchSize(batchSize);
+		}
+
 		/**
 		 * {@inheritDoc}
 		 */
@@ -619,6 +1950,31 @@ public class Storage {
 			return db.getCollection(collection).findOne(new BasicDBObject(ID_FIELD, id));
 		}
 		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Collection<DBObject> onGetByIds(String collection, Collection<ObjectId> ids) {
+			
+			Collection<DBObject> objects = new ArrayList<DBObject>(ids.size());
+			
+			DBCursor cur = null;
+			try {
+				cur = db.getCollection(collection).find(new BasicDBObject(ID_FIELD, 
+						new BasicDBObject("$in", ids)));
+				
+				for(DBObject dbobj : cur) {
+					objects.add(dbobj);
+				}
+			} finally {
+				if(cur != null)
+					cur.close();
+			}
+			
+			return objects;
+			
+		}
+		
 		/**
 		 * {@inheritDoc}
 		 */
@@ -643,6 +1999,60 @@ public class Storage {
 			db.getCollection(collection).remove(new BasicDBObject(ID_FIELD, id));
 		}	
 
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int onDeleteAll(String collection, DBObject query) {
+			return db.getCollection(collection).remove(query).getN();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void onUpdateFields(String collection, ObjectId id, DBObject set, DBObject unset) {
+			DBObject update = new BasicDBObject();
+			if(!set.keySet().isEmpty()) {
+				update.put("$set", set);
+			}
+			if(!unset.keySet().isEmpty()) {
+				update.put("$unset", unset);
+			}
+			db.getCollection(collection).update(new BasicDBObject(ID_FIELD, id), update);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long onCount(String collection, DBObject query) {
+			return db.getCollection(collection).count(query);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean onExists(String collection, DBObject query) {
+			DBCursor cur = null;
+			try {
+				cur = db.getCollection(collection).find(query, new BasicDBObject(ID_FIELD, 1)).limit(1);
+				return cur.hasNext();
+			} finally {
+				if(cur != null)
+					cur.close();
+			}
+		}
+
+		/**
+		 * Returns the projection for a {@link FieldList} or {@code null} to 
+		 * read all fields, if no {@code FieldList} has been passed.
+		 */
+		private static DBObject getProjection(FieldList fieldlist) {
+			return (fieldlist != null) ? fieldlist.getProjection() : null;
+		}
+
 		/**
 		 * {@inheritDoc}
 		 */
@@ -673,33 +2083,4 @@ public class Storage {
 		
 	}
 	
-	private class DecodeThread<T> extends Thread {
-		
-		private DBObject dbo;
-		private Class<T> clazz;
-		private ObjectId id;
-		private T result;
-		
-		public DecodeThread(DBObject dbo, Class<T> clazz) {
-			this.dbo = dbo;
-			this.clazz = clazz;
-			this.id = (ObjectId)dbo.get(ID_FIELD);
-		}
-
-		@Override
-		public synchronized void run() {
-			result = classConverter.decode(dbo, clazz);
-		}
-		
-		public synchronized T getResult() {
-			return result;
-		}
-		
-		public ObjectId getObjectId() {
-			return id;
-		}
-		
-		
-	}
-	
 }
\ No newline at end of file
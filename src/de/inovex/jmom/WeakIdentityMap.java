@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * A hash map, that compares its keys by identity and only holds them weakly.
+ * Once a key has been cleared by the GC, its mapping will be removed the next
+ * time the map is used. This is used to attach information to objects of the
+ * user, without preventing them from being collected and without calling their
+ * {@code hashCode} or {@code equals} methods.
+ * 
+ * The map is split into several segments by the identity hash code of the keys,
+ * like the {@link Storage.DefaultCache}. Each segment is guarded by its own lock,
+ * so threads decoding objects at the same time rarely wait for each other.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+final class WeakIdentityMap<V> {
+	
+	/**
+	 * The number of segments. Must be a power of two.
+	 */
+	private static final int SEGMENTS = 16;
+	
+	private final Segment<V>[] segments = newSegments(SEGMENTS);
+	
+	WeakIdentityMap() {
+		for(int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment<V>();
+		}
+	}
+	
+	/**
+	 * Returns the value for the given key or {@code null} if there is none.
+	 */
+	V get(Object key) {
+		int hash = System.identityHashCode(key);
+		return segmentFor(hash).get(key, hash);
+	}
+	
+	/**
+	 * Maps the given key to the given value, replacing any older value.
+	 */
+	void put(Object key, V value) {
+		int hash = System.identityHashCode(key);
+		segmentFor(hash).put(key, hash, value);
+	}
+	
+	/**
+	 * Removes the mapping for the given key, if there is one.
+	 */
+	void remove(Object key) {
+		int hash = System.identityHashCode(key);
+		segmentFor(hash).remove(key, hash);
+	}
+	
+	/**
+	 * Returns the number of mappings, whose keys haven't been collected yet.
+	 */
+	int size() {
+		int size = 0;
+		for(Segment<V> segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+	
+	private Segment<V> segmentFor(int hash) {
+		// Use the high bits of a multiplicative hash, so the segments don't
+		// depend on the low bits, that select the bucket inside a segment.
+		return segments[(hash * 0x9e3779b9) >>> 28];
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <V> Segment<V>[] newSegments(int length) {
+		return new Segment[length];
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <V> Entry<V>[] newTable(int length) {
+		return new Entry[length];
+	}
+	
+	private static int indexFor(int hash, int length) {
+		hash ^= (hash >>> 16);
+		return hash & (length - 1);
+	}
+	
+	/**
+	 * A part of the map. All methods are synchronized on the segment.
+	 */
+	private static final class Segment<V> {
+		
+		private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+		
+		private Entry<V>[] table = newTable(16);
+		private int size;
+		
+		synchronized V get(Object key, int hash) {
+			expungeStaleEntries();
+			for(Entry<V> e = table[indexFor(hash, table.length)]; e != null; e = e.next) {
+				if(e.hash == hash && e.get() == key) {
+					return e.value;
+				}
+			}
+			return null;
+		}
+		
+		synchronized void put(Object key, int hash, V value) {
+			expungeStaleEntries();
+			int index = indexFor(hash, table.length);
+			for(Entry<V> e = table[index]; e != null; e = e.next) {
+				if(e.hash == hash && e.get() == key) {
+					e.value = value;
+					return;
+				}
+			}
+			table[index] = new Entry<V>(key, hash, value, table[index], queue);
+			if(++size > table.length * 3 / 4) {
+				resize();
+			}
+		}
+		
+		synchronized void remove(Object key, int hash) {
+			expungeStaleEntries();
+			int index = indexFor(hash, table.length);
+			Entry<V> prev = null;
+			for(Entry<V> e = table[index]; e != null; prev = e, e = e.next) {
+				if(e.hash == hash && e.get() == key) {
+					unlink(index, prev, e);
+					return;
+				}
+			}
+		}
+		
+		synchronized int size() {
+			expungeStaleEntries();
+			return size;
+		}
+		
+		/**
+		 * Removes the entries of all keys, that have been collected.
+		 */
+		private void expungeStaleEntries() {
+			Reference<?> ref;
+			while((ref = queue.poll()) != null) {
+				Entry<?> stale = (Entry<?>)ref;
+				int index = indexFor(stale.hash, table.length);
+				Entry<V> prev = null;
+				for(Entry<V> e = table[index]; e != null; prev = e, e = e.next) {
+					if(e == stale) {
+						unlink(index, prev, e);
+						break;
+					}
+				}
+			}
+		}
+		
+		private void unlink(int index, Entry<V> prev, Entry<V> e) {
+			if(prev == null) {
+				table[index] = e.next;
+			} else {
+				prev.next = e.next;
+			}
+			e.value = null;
+			size--;
+		}
+		
+		private void resize() {
+			Entry<V>[] newTable = newTable(table.length * 2);
+			for(Entry<V> e : table) {
+				while(e != null) {
+					Entry<V> next = e.next;
+					int index = indexFor(e.hash, newTable.length);
+					e.next = newTable[index];
+					newTable[index] = e;
+					e = next;
+				}
+			}
+			table = newTable;
+		}
+		
+	}
+	
+	/**
+	 * An entry of the map, that only holds its key weakly.
+	 */
+	private static final class Entry<V> extends WeakReference<Object> {
+		
+		final int hash;
+		V value;
+		Entry<V> next;
+		
+		Entry(Object key, int hash, V value, Entry<V> next, ReferenceQueue<Object> queue) {
+			super(key, queue);
+			this.hash = hash;
+			this.value = value;
+			this.next = next;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a class with this annotation to let the jMOM annotation processor
+ * generate a codec for it at compile time. The generated codec lists the 
+ * persisted fields and reads and writes them directly, instead of using 
+ * reflection. Fields, that cannot be accessed from the package of the class,
+ * are still converted the reflective way. Getters and setters of the class
+ * are never called, so a class is stored the same with or without a codec.
+ * 
+ * If the annotation processor hasn't run, the class will be converted
+ * with reflection like any other class.
+ * 
+ * @see de.inovex.jmom.processor.CodecProcessor
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface GenerateCodec {
+	
+}
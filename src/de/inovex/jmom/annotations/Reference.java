@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sets how objects referenced by this field are saved, when the object
+ * containing the field is saved. If the field is an array or a collection,
+ * this applies to all objects in it. Fields without this annotation use
+ * {@link Cascade#SAVE}.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Reference {
+	
+	public enum Cascade {
+		
+		/**
+		 * Referenced objects are saved together with the referencing object.
+		 * New objects are inserted, stored objects are only written, if they
+		 * have changed since they have been read or saved (see
+		 * {@link de.inovex.jmom.Config#getDirtyTrackingEnabled()}).
+		 */
+		SAVE,
+		
+		/**
+		 * Only referenced objects, that haven't been stored yet, are saved.
+		 * Stored objects are referenced by their id, without encoding them, so
+		 * changes to them are only written, when they are saved themselves.
+		 */
+		NEW,
+		
+		/**
+		 * Referenced objects are never saved. They must have been read from 
+		 * or saved to the storage before, otherwise saving will fail.
+		 */
+		NONE
+		
+	};
+	
+	public Cascade cascade() default Cascade.SAVE;
+	
+}
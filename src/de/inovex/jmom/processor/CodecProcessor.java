@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom.processor;
+
+import de.inovex.jmom.GeneratedCodec;
+import de.inovex.jmom.annotations.GenerateCodec;
+import de.inovex.jmom.annotations.Transient;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * This annotation processor generates a {@link GeneratedCodec} for every class
+ * annotated with {@link GenerateCodec}. The codec is placed in the package of
+ * the class and lists all persisted fields in the same way 
+ * {@link de.inovex.jmom.util.ReflectionUtil#getAllFields(java.lang.Class)} does.
+ * 
+ * Fields are accessed directly, if they are visible in the package of the class.
+ * All other fields, including all final fields, are marked as not accessible and
+ * will be converted with reflection. Getters and setters are never used, so the
+ * generated codec reads and writes the same values as the reflective one and 
+ * doesn't run any code of the class. Synthetic fields are never part of the 
+ * source, so they are skipped like in {@code ReflectionUtil}.
+ * 
+ * The processor is registered as a service in {@code META-INF/services}, so
+ * it runs automatically, when jMOM is on the classpath of the compiler.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+@SupportedAnnotationTypes("de.inovex.jmom.annotations.GenerateCodec")
+public class CodecProcessor extends AbstractProcessor {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		
+		for(TypeElement type : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(GenerateCodec.class))) {
+			
+			if(type.getKind() != ElementKind.CLASS) {
+				error(type, "@GenerateCodec can only be used on classes.");
+				continue;
+			}
+			
+			if(!isTypeVisible(type, processingEnv.getElementUtils().getPackageOf(type))) {
+				warning(type, "No codec generated, because the class isn't visible in its package.");
+				continue;
+			}
+			
+			try {
+				generateCodec(type);
+			} catch (IOException ex) {
+				error(type, "Cannot write codec: " + ex.getMessage());
+			}
+			
+		}
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Collects all persisted fields of a type and its super classes.
+	 */
+	private List<VariableElement> getPersistedFields(TypeElement type) {
+		
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		
+		TypeElement t = type;
+		while(t != null && !t.getQualifiedName().contentEquals(Object.class.getName())) {
+			
+			for(VariableElement field : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+				if(field.getModifiers().contains(Modifier.TRANSIENT)
+						|| field.getAnnotation(Transient.class) != null)
+					continue;
+				fields.add(field);
+			}
+			
+			TypeMirror superclass = t.getSuperclass();
+			t = superclass.getKind() == TypeKind.DECLARED 
+					? (TypeElement)((DeclaredType)superclass).asElement() : null;
+			
+		}
+		
+		return fields;
+		
+	}
+	
+	private void generateCodec(TypeElement type) throws IOException {
+		
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		String codecName = GeneratedCodec.getCodecName(binaryName);
+		String simpleCodecName = codecName.substring(codecName.lastIndexOf('.') + 1);
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		String typeName = erasure(type.asType());
+		
+		List<VariableElement> fields = getPersistedFields(type);
+		
+		// The codec needs the class literals of all classes declaring a field
+		for(VariableElement field : fields) {
+			if(!isTypeVisible((TypeElement)field.getEnclosingElement(), pkg)) {
+				warning(type, String.format("No codec generated, because the class %s declaring "
+						+ "field %s isn't visible in package %s.", field.getEnclosingElement(), 
+						field.getSimpleName(), pkg.getQualifiedName()));
+				return;
+			}
+		}
+		
+		// Build the expressions to read and write each field
+		List<String> getters = new ArrayList<String>(fields.size());
+		List<String> setters = new ArrayList<String>(fields.size());
+		for(VariableElement field : fields) {
+			
+			String fieldType = erasure(field.asType());
+			String castType = field.asType().getKind().isPrimitive() 
+					? erasure(processingEnv.getTypeUtils().boxedClass(
+						processingEnv.getTypeUtils().getPrimitiveType(field.asType().getKind())).asType())
+					: fieldType;
+			String cast = "(" + castType + ")value";
+			
+			// Final fields cannot be assigned by the codec, so they are converted with reflection.
+			if(field.getModifiers().contains(Modifier.FINAL)) {
+				getters.add(null);
+				setters.add(null);
+				continue;
+			}
+			
+			TypeElement declaring = (TypeElement)field.getEnclosingElement();
+			if(!field.getModifiers().contains(Modifier.STATIC) && isVisible(field, pkg)) {
+				// Cast to the declaring class, in case a subclass hides the field
+				String access = (declaring.equals(type) ? "o" : "((" + erasure(declaring.asType()) + ")o)")
+						+ "." + field.getSimpleName();
+				getters.add(access);
+				setters.add(access + " = " + cast);
+				continue;
+			}
+			
+			getters.add(null);
+			setters.add(null);
+			
+		}
+		
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(codecName, type);
+		PrintWriter out = new PrintWriter(file.openWriter());
+		try {
+			
+			if(!pkg.isUnnamed()) {
+				out.println("package " + pkg.getQualifiedName() + ";");
+				out.println();
+			}
+			
+			out.println("/**");
+			out.println(" * Codec for {@link " + typeName + "}.");
+			out.println(" * Generated by " + CodecProcessor.class.getName() + ", do not edit.");
+			out.println(" */");
+			out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+			out.println("public final class " + simpleCodecName 
+					+ " extends " + GeneratedCodec.class.getName() + "<" + typeName + "> {");
+			out.println();
+			
+			// Constructor with the field metadata
+			out.println("\tpublic " + simpleCodecName + "() {");
+			out.println("\t\tsuper(" + typeName + ".class,");
+			out.print("\t\t\tnew java.lang.Class<?>[] {");
+			for(int i = 0; i < fields.size(); i++) {
+				out.print((i > 0 ? ", " : " ") + erasure(fields.get(i).getEnclosingElement().asType()) + ".class");
+			}
+			out.println(" },");
+			out.print("\t\t\tnew java.lang.String[] {");
+			for(int i = 0; i < fields.size(); i++) {
+				out.print((i > 0 ? ", " : " ") + "\"" + fields.get(i).getSimpleName() + "\"");
+			}
+			out.println(" },");
+			out.print("\t\t\tnew boolean[] {");
+			for(int i = 0; i < fields.size(); i++) {
+				out.print((i > 0 ? ", " : " ") + (getters.get(i) != null));
+			}
+			out.println(" });");
+			out.println("\t}");
+			out.println();
+			
+			out.println("\t@java.lang.Override");
+			out.println("\tpublic " + typeName + " newInstance() {");
+			out.println("\t\treturn " + (hasVisibleDefaultConstructor(type) ? "new " + typeName + "()" : "null") + ";");
+			out.println("\t}");
+			out.println();
+			
+			out.println("\t@java.lang.Override");
+			out.println("\tpublic java.lang.Object get(java.lang.Object obj, int index) {");
+			out.println("\t\t" + typeName + " o = (" + typeName + ")obj;");
+			out.println("\t\tswitch(index) {");
+			for(int i = 0; i < fields.size(); i++) {
+				if(getters.get(i) != null) {
+					out.println("\t\t\tcase " + i + ": return " + getters.get(i) + ";");
+				}
+			}
+			out.println("\t\t\tdefault: throw new java.lang.IllegalArgumentException(\"Field \" + index + \" is not accessible.\");");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println();
+			
+			out.println("\t@java.lang.Override");
+			out.println("\tpublic void set(java.lang.Object obj, int index, java.lang.Object value) {");
+			out.println("\t\t" + typeName + " o = (" + typeName + ")obj;");
+			out.println("\t\tswitch(index) {");
+			for(int i = 0; i < fields.size(); i++) {
+				if(setters.get(i) != null) {
+					out.println("\t\t\tcase " + i + ": " + setters.get(i) + "; return;");
+				}
+			}
+			out.println("\t\t\tdefault: throw new java.lang.IllegalArgumentException(\"Field \" + index + \" is not accessible.\");");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println();
+			
+			out.println("}");
+			
+		} finally {
+			out.close();
+		}
+		
+	}
+	
+	private boolean hasVisibleDefaultConstructor(TypeElement type) {
+		if(type.getModifiers().contains(Modifier.ABSTRACT)
+				|| (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))) {
+			return false;
+		}
+		for(ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if(constructor.getParameters().isEmpty()) {
+				return !constructor.getModifiers().contains(Modifier.PRIVATE);
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks whether a member can be accessed from a class in the given package,
+	 * that is not a subclass of the declaring class.
+	 */
+	private boolean isVisible(Element member, PackageElement pkg) {
+		if(member.getModifiers().contains(Modifier.PUBLIC)) {
+			return true;
+		}
+		return !member.getModifiers().contains(Modifier.PRIVATE)
+				&& processingEnv.getElementUtils().getPackageOf(member).equals(pkg);
+	}
+	
+	/**
+	 * Checks whether a type and all its enclosing types can be accessed from
+	 * the given package.
+	 */
+	private boolean isTypeVisible(TypeElement type, PackageElement pkg) {
+		Element e = type;
+		while(e.getKind().isClass() || e.getKind().isInterface()) {
+			if(!isVisible(e, pkg)) {
+				return false;
+			}
+			e = e.getEnclosingElement();
+		}
+		return true;
+	}
+	
+	private String erasure(TypeMirror type) {
+		return processingEnv.getTypeUtils().erasure(type).toString();
+	}
+	
+	private void error(Element element, String msg) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, element);
+	}
+	
+	private void warning(Element element, String msg) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, msg, element);
+	}
+	
+}
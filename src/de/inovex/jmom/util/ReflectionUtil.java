@@ -35,7 +35,8 @@ public class ReflectionUtil {
 	/**
 	 * Returns a collection containing all fields of a class, that should be 
 	 * persisted into the database. This will be all fields (also private) 
-	 * except {@code transient} fields. 
+	 * except {@code transient} fields and synthetic fields added by the compiler
+	 * (like the reference to the outer instance of an inner class). 
 	 * 
 	 * @param clazz The class, that should be analysed.
 	 * @return A collection of all fields, that should be persisted.
@@ -50,12 +51,13 @@ public class ReflectionUtil {
 		
 			Field[] allFields = c.getDeclaredFields();
 
-			// Add all non transient fields
+			// Add all non transient fields, that have been declared in source
 			for(Field field : allFields) {
 
 				int modifiers = field.getModifiers();
 
 				if((modifiers & Modifier.TRANSIENT) == Modifier.TRANSIENT
+						|| field.isSynthetic()
 						|| field.isAnnotationPresent(Transient.class))
 					continue;
 
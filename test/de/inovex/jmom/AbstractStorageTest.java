@@ -17,6 +17,7 @@ package de.inovex.jmom;
 
 import java.util.List;
 import com.mongodb.DB;
+import com.mongodb.DBCollection;
 import com.mongodb.Mongo;
 import org.junit.After;
 import org.junit.BeforeClass;
@@ -45,6 +46,8 @@ public abstract class AbstractStorageTest {
 			//Mongo mongo = new Mongo(new ServerAddress(InetAddress.getByName("10.10.20.118")));
 			Mongo mongo = new Mongo();
 			db = mongo.getDB("junit");
+			// Use a single connection, so tests can check the database right after a write.
+			db.requestStart();
 			db.dropDatabase();
 			storage = Storage.getInstance(db);
 		} catch (Exception ex) {
@@ -60,6 +63,22 @@ public abstract class AbstractStorageTest {
 		db.dropDatabase();
 	}
 	
+	/**
+	 * Returns the collection of a class, to check or change the stored documents
+	 * behind the back of the storage.
+	 */
+	static DBCollection getCollection(Class<?> clazz) {
+		return db.getCollection(clazz.getCanonicalName());
+	}
+	
+	/**
+	 * Returns a new handler for the test database, that counts the database
+	 * operations. A storage using it can be created with {@link Storage#getInstance(de.inovex.jmom.Storage.DBHandler)}.
+	 */
+	static CountingDBHandler createCountingHandler() {
+		return new CountingDBHandler(new Storage.MongoDBHandler(db));
+	}
+	
 	public <T> T getSingleResult(List<T> list) {
 		if(list.size() != 1) {
 			fail(String.format("Result list contained %d elements. Only one element expected.", list.size()));
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import de.inovex.jmom.Storage.DBHandler;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.bson.types.ObjectId;
+import org.junit.Ignore;
+
+/**
+ * A {@link DBHandler}, that passes all calls to another handler and counts
+ * them, so tests can check how many database operations have been used.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+@Ignore
+public class CountingDBHandler implements DBHandler {
+
+	private final DBHandler handler;
+	private final Map<String, Integer> calls = new HashMap<String, Integer>();
+
+	public CountingDBHandler(DBHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Returns how often the method with the given name has been called.
+	 */
+	public synchronized int getCalls(String method) {
+		Integer count = calls.get(method);
+		return (count != null) ? count : 0;
+	}
+
+	/**
+	 * Forgets all counted calls.
+	 */
+	public synchronized void reset() {
+		calls.clear();
+	}
+
+	private synchronized void count(String method) {
+		calls.put(method, getCalls(method) + 1);
+	}
+
+	@Override
+	public void onSave(String collection, DBObject dbobj, FieldList fieldList) {
+		count("onSave");
+		handler.onSave(collection, dbobj, fieldList);
+	}
+
+	@Override
+	public void onInsert(String collection, List<DBObject> dbobjs) {
+		count("onInsert");
+		handler.onInsert(collection, dbobjs);
+	}
+
+	@Override
+	public void onUpdate(String collection, List<DBObject> dbobjs) {
+		count("onUpdate");
+		handler.onUpdate(collection, dbobjs);
+	}
+
+	@Override
+	public Collection<DBObject> onGet(String collection, FieldList fieldList) {
+		count("onGet");
+		return handler.onGet(collection, fieldList);
+	}
+
+	@Override
+	public List<DBObject> onFind(String collection, FieldList fieldList, DBObject query,
+			DBObject sort, int skip, int limit) {
+		count("onFind");
+		return handler.onFind(collection, fieldList, query, sort, skip, limit);
+	}
+
+	@Override
+	public Iterator<DBObject> onIterate(String collection, FieldList fieldList, int batchSize) {
+		count("onIterate");
+		return handler.onIterate(collection, fieldList, batchSize);
+	}
+
+	@Override
+	public DBObject onGetById(String collection, ObjectId id) {
+		count("onGetById");
+		return handler.onGetById(collection, id);
+	}
+
+	@Override
+	public Collection<DBObject> onGetByIds(String collection, Collection<ObjectId> ids) {
+		count("onGetByIds");
+		return handler.onGetByIds(collection, ids);
+	}
+
+	@Override
+	public DBRef onCreateRef(String collection, DBObject refTo) {
+		count("onCreateRef");
+		return handler.onCreateRef(collection, refTo);
+	}
+
+	@Override
+	public DBObject onFetchRef(DBRef ref) {
+		count("onFetchRef");
+		return handler.onFetchRef(ref);
+	}
+
+	@Override
+	public void onDelete(String collection, ObjectId id) {
+		count("onDelete");
+		handler.onDelete(collection, id);
+	}
+
+	@Override
+	public int onDeleteAll(String collection, DBObject query) {
+		count("onDeleteAll");
+		return handler.onDeleteAll(collection, query);
+	}
+
+	@Override
+	public void onUpdateFields(String collection, ObjectId id, DBObject set, DBObject unset) {
+		count("onUpdateFields");
+		handler.onUpdateFields(collection, id, set, unset);
+	}
+
+	@Override
+	public long onCount(String collection, DBObject query) {
+		count("onCount");
+		return handler.onCount(collection, query);
+	}
+
+	@Override
+	public boolean onExists(String collection, DBObject query) {
+		count("onExists");
+		return handler.onExists(collection, query);
+	}
+
+}
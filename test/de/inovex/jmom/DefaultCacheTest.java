@@ -0,0 +1,256 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.test.PlainTestClass;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link Storage.DefaultCache}.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class DefaultCacheTest {
+	
+	private Storage.DefaultCache cache;
+	
+	@Before
+	public void createCache() {
+		cache = new Storage.DefaultCache();
+	}
+	
+	@Test
+	public void testPutAndGet() {
+		
+		PlainTestClass obj = new PlainTestClass(1);
+		ObjectId id = new ObjectId();
+		cache.put(id, obj);
+		
+		assertSame(obj, cache.getObject(id));
+		assertEquals(id, cache.getId(obj));
+		assertNull(cache.getObject(new ObjectId()));
+		assertNull(cache.getId(new PlainTestClass(2)));
+		
+	}
+	
+	@Test
+	public void testDelete() {
+		
+		PlainTestClass obj = new PlainTestClass(1);
+		ObjectId id = new ObjectId();
+		cache.put(id, obj);
+		cache.delete(id);
+		
+		assertNull(cache.getObject(id));
+		assertNull(cache.getId(obj));
+		
+	}
+	
+	/**
+	 * Objects must be identified by identity, not by equals.
+	 */
+	@Test
+	public void testIdentity() {
+		
+		PlainTestClass obj = new PlainTestClass(1);
+		PlainTestClass equal = new PlainTestClass(1);
+		ObjectId id = new ObjectId();
+		cache.put(id, obj);
+		
+		assertEquals(id, cache.getId(obj));
+		assertNull(cache.getId(equal));
+		
+	}
+	
+	/**
+	 * Deleting an id must remove all objects, that have been put for that id.
+	 */
+	@Test
+	public void testDeleteSeveralObjects() {
+		
+		PlainTestClass first = new PlainTestClass(1);
+		PlainTestClass second = new PlainTestClass(1);
+		ObjectId id = new ObjectId();
+		cache.put(id, first);
+		cache.put(id, second);
+		
+		assertSame(second, cache.getObject(id));
+		assertEquals(id, cache.getId(first));
+		
+		cache.delete(id);
+		
+		assertNull(cache.getObject(id));
+		assertNull(cache.getId(first));
+		assertNull(cache.getId(second));
+		
+	}
+	
+	/**
+	 * Putting an object with a new id must replace its old id.
+	 */
+	@Test
+	public void testChangeId() {
+		
+		PlainTestClass obj = new PlainTestClass(1);
+		ObjectId oldId = new ObjectId();
+		ObjectId newId = new ObjectId();
+		cache.put(oldId, obj);
+		cache.put(newId, obj);
+		
+		assertEquals(newId, cache.getId(obj));
+		assertSame(obj, cache.getObject(newId));
+		
+		// Deleting the old id must not affect the object
+		cache.delete(oldId);
+		assertEquals(newId, cache.getId(obj));
+		
+	}
+	
+	@Test
+	public void testManyObjects() {
+		
+		List<PlainTestClass> objects = new ArrayList<PlainTestClass>();
+		List<ObjectId> ids = new ArrayList<ObjectId>();
+		for(int i = 0; i < 10000; i++) {
+			PlainTestClass obj = new PlainTestClass(i);
+			ObjectId id = new ObjectId();
+			cache.put(id, obj);
+			objects.add(obj);
+			ids.add(id);
+		}
+		
+		for(int i = 0; i < objects.size(); i += 2) {
+			cache.delete(ids.get(i));
+		}
+		
+		for(int i = 0; i < objects.size(); i++) {
+			if(i % 2 == 0) {
+				assertNull(cache.getId(objects.get(i)));
+				assertNull(cache.getObject(ids.get(i)));
+			} else {
+				assertEquals(ids.get(i), cache.getId(objects.get(i)));
+				assertSame(objects.get(i), cache.getObject(ids.get(i)));
+			}
+		}
+		
+	}
+	
+	@Test
+	public void testSize() {
+		
+		PlainTestClass first = new PlainTestClass(1);
+		PlainTestClass second = new PlainTestClass(2);
+		ObjectId id = new ObjectId();
+		cache.put(id, first);
+		cache.put(new ObjectId(), second);
+		assertEquals(2, cache.size());
+		
+		cache.delete(id);
+		assertEquals(1, cache.size());
+		
+	}
+	
+	/**
+	 * Objects, that have been cleared by the GC, must be removed from the cache.
+	 */
+	@Test
+	public void testExpungeClearedObjects() throws InterruptedException {
+		
+		PlainTestClass alive = new PlainTestClass(-1);
+		ObjectId aliveId = new ObjectId();
+		cache.put(aliveId, alive);
+		
+		for(int i = 0; i < 1000; i++) {
+			cache.put(new ObjectId(), new PlainTestClass(i));
+		}
+		
+		// The GC cannot be forced, so try several times
+		for(int i = 0; i < 50 && cache.size() > 1; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		
+		assertEquals(1, cache.size());
+		assertSame(alive, cache.getObject(aliveId));
+		assertEquals(aliveId, cache.getId(alive));
+		
+	}
+	
+	/**
+	 * Several threads putting and reading objects at the same time must
+	 * neither fail nor lose any entries.
+	 */
+	@Test
+	public void testConcurrentAccess() throws InterruptedException {
+		
+		final int threadCount = 8;
+		final int objectsPerThread = 2000;
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		final List<List<PlainTestClass>> objects = new ArrayList<List<PlainTestClass>>();
+		final List<List<ObjectId>> ids = new ArrayList<List<ObjectId>>();
+		
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			final List<PlainTestClass> threadObjects = new ArrayList<PlainTestClass>();
+			final List<ObjectId> threadIds = new ArrayList<ObjectId>();
+			objects.add(threadObjects);
+			ids.add(threadIds);
+			final int offset = t * objectsPerThread;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for(int i = 0; i < objectsPerThread; i++) {
+							PlainTestClass obj = new PlainTestClass(offset + i);
+							ObjectId id = new ObjectId();
+							cache.put(id, obj);
+							threadObjects.add(obj);
+							threadIds.add(id);
+							assertSame(obj, cache.getObject(id));
+							assertEquals(id, cache.getId(obj));
+						}
+					} catch(Throwable ex) {
+						synchronized(errors) {
+							errors.add(ex);
+						}
+					}
+				}
+			};
+		}
+		
+		for(Thread thread : threads) {
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		
+		assertTrue("Errors in threads: " + errors, errors.isEmpty());
+		for(int t = 0; t < threadCount; t++) {
+			for(int i = 0; i < objectsPerThread; i++) {
+				assertSame(objects.get(t).get(i), cache.getObject(ids.get(t).get(i)));
+				assertEquals(ids.get(t).get(i), cache.getId(objects.get(t).get(i)));
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ObjectIdMap}.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class ObjectIdMapTest {
+	
+	@Test
+	public void testPutAndGet() {
+		
+		ObjectIdMap<String> map = new ObjectIdMap<String>();
+		ObjectId id = new ObjectId();
+		
+		assertNull(map.put(id, "first"));
+		assertEquals("first", map.put(id, "second"));
+		assertEquals("second", map.get(id));
+		// Another ObjectId object with the same value must find the mapping
+		assertEquals("second", map.get(new ObjectId(id.toString())));
+		assertNull(map.get(new ObjectId()));
+		assertEquals(1, map.size());
+		
+	}
+	
+	@Test
+	public void testRemoveValue() {
+		
+		ObjectIdMap<String> map = new ObjectIdMap<String>();
+		ObjectId id = new ObjectId();
+		String value = "value";
+		map.put(id, value);
+		
+		assertNull(map.remove(id._time(), id._machine(), id._inc(), "other"));
+		assertSame(value, map.remove(id._time(), id._machine(), id._inc(), value));
+		assertNull(map.get(id));
+		assertEquals(0, map.size());
+		
+	}
+	
+	/**
+	 * Removing entries must keep all other entries reachable, also after
+	 * the table has been resized several times.
+	 */
+	@Test
+	public void testManyEntries() {
+		
+		ObjectIdMap<Integer> map = new ObjectIdMap<Integer>();
+		List<ObjectId> ids = new ArrayList<ObjectId>();
+		Random random = new Random(42);
+		for(int i = 0; i < 20000; i++) {
+			// Similar ids, like they are created by one client, and random ids
+			ObjectId id = (i % 2 == 0) ? new ObjectId() 
+					: new ObjectId(random.nextInt(), random.nextInt(), random.nextInt());
+			ids.add(id);
+			map.put(id, i);
+		}
+		
+		for(int i = 0; i < ids.size(); i += 3) {
+			assertEquals(Integer.valueOf(i), map.remove(ids.get(i)));
+		}
+		
+		for(int i = 0; i < ids.size(); i++) {
+			if(i % 3 == 0) {
+				assertNull(map.get(ids.get(i)));
+			} else {
+				assertEquals(Integer.valueOf(i), map.get(ids.get(i)));
+			}
+		}
+		assertEquals(ids.size() - (ids.size() + 2) / 3, map.size());
+		
+	}
+	
+}
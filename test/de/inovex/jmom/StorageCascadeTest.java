@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import de.inovex.jmom.annotations.Reference;
+import de.inovex.jmom.exception.SerializationException;
+import de.inovex.jmom.test.CascadeTestClass;
+import de.inovex.jmom.test.PseudoPrimitiveTestClass;
+import java.util.Arrays;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests saving referenced objects with the different {@link Reference.Cascade cascades}.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageCascadeTest extends AbstractStorageTest {
+
+	private DBCollection getReferencedCollection() {
+		return getCollection(PseudoPrimitiveTestClass.class);
+	}
+
+	private int getStoredIntVal(Object obj) {
+		ObjectId id = storage.getCache().getId(obj);
+		return (Integer)getReferencedCollection().findOne(new BasicDBObject(Storage.ID_FIELD, id)).get("intVal");
+	}
+
+	private PseudoPrimitiveTestClass create(int intVal) {
+		PseudoPrimitiveTestClass obj = new PseudoPrimitiveTestClass();
+		obj.setIntVal(intVal);
+		return obj;
+	}
+
+	@Test
+	public void testSave() {
+
+		CascadeTestClass obj = new CascadeTestClass();
+		obj.setSaveRef(create(1));
+		storage.save(obj);
+		assertEquals(1, getStoredIntVal(obj.getSaveRef()));
+
+		obj.getSaveRef().setIntVal(2);
+		storage.save(obj);
+		assertEquals(2, getStoredIntVal(obj.getSaveRef()));
+
+	}
+
+	/**
+	 * Unchanged referenced objects must not be written again.
+	 */
+	@Test
+	public void testSaveUnchanged() {
+
+		CascadeTestClass obj = new CascadeTestClass();
+		obj.setSaveRef(create(1));
+		storage.save(obj);
+
+		getReferencedCollection().remove(new BasicDBObject());
+		storage.save(obj);
+
+		assertEquals(0, getReferencedCollection().count());
+
+	}
+
+	@Test
+	public void testNew() {
+
+		CascadeTestClass obj = new CascadeTestClass();
+		obj.setNewRef(create(1));
+		obj.setNewList(Arrays.asList(create(10), create(20)));
+		storage.save(obj);
+		assertEquals(1, getStoredIntVal(obj.getNewRef()));
+		assertEquals(3, getReferencedCollection().count());
+
+		obj.getNewRef().setIntVal(2);
+		obj.getNewList().get(0).setIntVal(11);
+		storage.save(obj);
+		assertEquals(1, getStoredIntVal(obj.getNewRef()));
+		assertEquals(10, getStoredIntVal(obj.getNewList().get(0)));
+
+		storage.save(obj.getNewRef());
+		assertEquals(2, getStoredIntVal(obj.getNewRef()));
+
+		CascadeTestClass found = getSingleResult(storage.findAll(CascadeTestClass.class));
+		assertEquals(2, found.getNewRef().getIntVal());
+		assertEquals(2, found.getNewList().size());
+
+	}
+
+	@Test
+	public void testNone() {
+
+		PseudoPrimitiveTestClass ref = create(1);
+		storage.save(ref);
+
+		CascadeTestClass obj = new CascadeTestClass();
+		obj.setNoneRef(ref);
+		storage.save(obj);
+
+		ref.setIntVal(2);
+		storage.save(obj);
+		assertEquals(1, getStoredIntVal(ref));
+
+		CascadeTestClass found = getSingleResult(storage.findAll(CascadeTestClass.class));
+		assertSame(ref, found.getNoneRef());
+
+	}
+
+	@Test(expected = SerializationException.class)
+	public void testNoneUnsaved() {
+		CascadeTestClass obj = new CascadeTestClass();
+		obj.setNoneRef(create(1));
+		storage.save(obj);
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.test.PlainTestClass;
+import de.inovex.jmom.test.SimpleReferencedClass;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link Storage#count(java.lang.Class)}, {@link Storage#count(de.inovex.jmom.Query)}
+ * and {@link Storage#exists(java.lang.Class, org.bson.types.ObjectId)}.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageCountTest extends AbstractStorageTest {
+
+	@Test
+	public void testCount() {
+
+		assertEquals(0, storage.count(PlainTestClass.class));
+
+		List<PlainTestClass> objects = new ArrayList<PlainTestClass>();
+		for(int i = 0; i < 20; i++) {
+			objects.add(new PlainTestClass(i));
+		}
+		storage.saveMultiple(objects);
+		storage.save(new SimpleReferencedClass(1));
+
+		assertEquals(20, storage.count(PlainTestClass.class));
+		assertEquals(1, storage.count(SimpleReferencedClass.class));
+		assertEquals(5, storage.count(storage.query(PlainTestClass.class).where("key").gte(15)));
+		assertEquals(0, storage.count(storage.query(PlainTestClass.class).where("key").is(42)));
+
+	}
+
+	@Test
+	public void testExists() {
+
+		PlainTestClass obj = new PlainTestClass(1);
+		storage.save(obj);
+		ObjectId id = storage.getCache().getId(obj);
+
+		assertTrue(storage.exists(PlainTestClass.class, id));
+		assertFalse(storage.exists(PlainTestClass.class, new ObjectId()));
+		assertFalse(storage.exists(SimpleReferencedClass.class, id));
+
+		storage.delete(obj);
+		assertFalse(storage.exists(PlainTestClass.class, id));
+
+	}
+
+}
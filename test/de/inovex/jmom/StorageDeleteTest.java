@@ -16,6 +16,10 @@
 package de.inovex.jmom;
 
 import de.inovex.jmom.test.PlainTestClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.bson.types.ObjectId;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -42,4 +46,79 @@ public class StorageDeleteTest extends AbstractStorageTest {
 		
 	}
 	
+	/**
+	 * Deleting an object, that has never been saved, must do nothing.
+	 */
+	@Test
+	public void testDeleteUnsaved() {
+		
+		storage.save(new PlainTestClass(1));
+		storage.delete(new PlainTestClass(1));
+		
+		assertEquals(1, storage.findAll(PlainTestClass.class).size());
+		
+	}
+	
+	private List<PlainTestClass> saveObjects(int count) {
+		List<PlainTestClass> objects = new ArrayList<PlainTestClass>();
+		for(int i = 0; i < count; i++) {
+			objects.add(new PlainTestClass(i));
+		}
+		storage.saveMultiple(objects);
+		return objects;
+	}
+	
+	@Test
+	public void testDeleteAll() {
+		
+		List<PlainTestClass> objects = saveObjects(10);
+		
+		int deleted = storage.deleteAll(PlainTestClass.class, objects.subList(0, 7));
+		
+		assertEquals(7, deleted);
+		assertEquals(objects.subList(7, 10), storage.findAll(PlainTestClass.class, Sort.ascending("key"), 0, 0));
+		assertNull("Deleted object is still cached", storage.getCache().getId(objects.get(0)));
+		assertNotNull(storage.getCache().getId(objects.get(7)));
+		
+	}
+	
+	@Test
+	public void testDeleteByIds() {
+		
+		List<PlainTestClass> objects = saveObjects(5);
+		ObjectId id = storage.getCache().getId(objects.get(2));
+		
+		assertEquals(1, storage.deleteByIds(PlainTestClass.class, Arrays.asList(id, new ObjectId(), id)));
+		assertNull(storage.findByObjectId(PlainTestClass.class, id));
+		assertEquals(4, storage.findAll(PlainTestClass.class).size());
+		
+	}
+	
+	@Test
+	public void testDeleteWhere() {
+		
+		List<PlainTestClass> objects = saveObjects(20);
+		
+		int deleted = storage.deleteWhere(storage.query(PlainTestClass.class).where("key").lt(15));
+		
+		assertEquals(15, deleted);
+		assertEquals(objects.subList(15, 20), storage.findAll(PlainTestClass.class, Sort.ascending("key"), 0, 0));
+		assertNull(storage.getCache().getId(objects.get(3)));
+		
+	}
+	
+	/**
+	 * Deleting with a limit must only delete the first objects of the query.
+	 */
+	@Test
+	public void testDeleteWhereLimit() {
+		
+		List<PlainTestClass> objects = saveObjects(10);
+		
+		assertEquals(3, storage.deleteWhere(storage.query(PlainTestClass.class)
+				.sort(Sort.descending("key")).limit(3)));
+		assertEquals(objects.subList(0, 7), storage.findAll(PlainTestClass.class, Sort.ascending("key"), 0, 0));
+		
+	}
+	
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import de.inovex.jmom.test.PlainTestClass;
+import de.inovex.jmom.test.PseudoPrimitiveTestClass;
+import java.util.Arrays;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests, that saving an already stored object only writes the changed fields
+ * (see {@link Config#getDirtyTrackingEnabled()}). To check what has been
+ * written, the documents are changed behind the back of the storage.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageDirtyTrackingTest extends AbstractStorageTest {
+
+	@After
+	public void resetConfig() {
+		storage.setConfig(new Config());
+	}
+
+	private DBObject getDocument(Class<?> clazz, ObjectId id) {
+		return getCollection(clazz).findOne(new BasicDBObject(Storage.ID_FIELD, id));
+	}
+
+	/**
+	 * Adds a field to the stored document, that will only survive a save,
+	 * if the document isn't replaced.
+	 */
+	private void addForeignField(Class<?> clazz, ObjectId id) {
+		getCollection(clazz).update(new BasicDBObject(Storage.ID_FIELD, id),
+				new BasicDBObject("$set", new BasicDBObject("foreign", 1)));
+	}
+
+	@Test
+	public void testOnlyChangedFields() {
+
+		PseudoPrimitiveTestClass obj = new PseudoPrimitiveTestClass();
+		obj.setIntVal(1);
+		obj.setStringVal("foo");
+		storage.save(obj);
+		ObjectId id = storage.getCache().getId(obj);
+		addForeignField(PseudoPrimitiveTestClass.class, id);
+
+		obj.setIntVal(2);
+		storage.save(obj);
+
+		DBObject dbobj = getDocument(PseudoPrimitiveTestClass.class, id);
+		assertEquals(2, dbobj.get("intVal"));
+		assertEquals("foo", dbobj.get("stringVal"));
+		assertEquals("The document has been replaced", 1, dbobj.get("foreign"));
+
+	}
+
+	/**
+	 * Bulk saves must only write the changed fields too.
+	 */
+	@Test
+	public void testOnlyChangedFieldsBulk() {
+
+		PseudoPrimitiveTestClass first = new PseudoPrimitiveTestClass();
+		first.setIntVal(1);
+		first.setStringVal("foo");
+		PseudoPrimitiveTestClass second = new PseudoPrimitiveTestClass();
+		second.setIntVal(2);
+		second.setStringVal("bar");
+		storage.saveMultiple(Arrays.asList(first, second));
+		ObjectId firstId = storage.getCache().getId(first);
+		ObjectId secondId = storage.getCache().getId(second);
+		addForeignField(PseudoPrimitiveTestClass.class, firstId);
+		addForeignField(PseudoPrimitiveTestClass.class, secondId);
+
+		first.setIntVal(3);
+		second.setStringVal(null);
+		storage.saveMultiple(Arrays.asList(first, second));
+
+		DBObject dbobj = getDocument(PseudoPrimitiveTestClass.class, firstId);
+		assertEquals(3, dbobj.get("intVal"));
+		assertEquals("foo", dbobj.get("stringVal"));
+		assertEquals("The document has been replaced", 1, dbobj.get("foreign"));
+		dbobj = getDocument(PseudoPrimitiveTestClass.class, secondId);
+		assertFalse(dbobj.containsField("stringVal"));
+		assertEquals("The document has been replaced", 1, dbobj.get("foreign"));
+
+		second.setIntVal(4);
+		storage.saveGraph(second);
+
+		dbobj = getDocument(PseudoPrimitiveTestClass.class, secondId);
+		assertEquals(4, dbobj.get("intVal"));
+		assertEquals("The document has been replaced", 1, dbobj.get("foreign"));
+
+	}
+
+	@Test
+	public void testUnsetNullFields() {
+
+		PseudoPrimitiveTestClass obj = new PseudoPrimitiveTestClass();
+		obj.setStringVal("foo");
+		storage.save(obj);
+		ObjectId id = storage.getCache().getId(obj);
+
+		obj.setStringVal(null);
+		storage.save(obj);
+
+		assertFalse(getDocument(PseudoPrimitiveTestClass.class, id).containsField("stringVal"));
+		assertNull(storage.findByObjectId(PseudoPrimitiveTestClass.class, id).getStringVal());
+
+	}
+
+	/**
+	 * Saving an unchanged object must not write anything, so a document
+	 * removed behind the back of the storage won't be created again.
+	 */
+	@Test
+	public void testSkipUnchanged() {
+
+		PlainTestClass obj = new PlainTestClass(1);
+		storage.save(obj);
+
+		getCollection(PlainTestClass.class).remove(new BasicDBObject());
+		storage.save(obj);
+		storage.saveMultiple(Arrays.asList(obj));
+
+		assertEquals(0, getCollection(PlainTestClass.class).count());
+
+	}
+
+	/**
+	 * Objects read from database must be tracked too.
+	 */
+	@Test
+	public void testLoadedObjects() {
+
+		PseudoPrimitiveTestClass obj = new PseudoPrimitiveTestClass();
+		obj.setFloatVal(1.5f);
+		obj.setCharVal('a');
+		obj.setDateVal(new java.util.Date(1000));
+		storage.save(obj);
+		ObjectId id = storage.getCache().getId(obj);
+		addForeignField(PseudoPrimitiveTestClass.class, id);
+
+		PseudoPrimitiveTestClass found = storage.findByObjectId(PseudoPrimitiveTestClass.class, id);
+
+		// Nothing has changed, so the foreign field must not be removed.
+		storage.save(found);
+		assertEquals(1, getDocument(PseudoPrimitiveTestClass.class, id).get("foreign"));
+
+		found.setLongVal(42L);
+		storage.save(found);
+		DBObject dbobj = getDocument(PseudoPrimitiveTestClass.class, id);
+		assertEquals(42L, dbobj.get("longVal"));
+		assertEquals(1, dbobj.get("foreign"));
+
+	}
+
+	@Test
+	public void testDisabled() {
+
+		Config config = new Config();
+		config.setDirtyTrackingEnabled(false);
+		storage.setConfig(config);
+
+		PlainTestClass obj = new PlainTestClass(1);
+		storage.save(obj);
+
+		getCollection(PlainTestClass.class).remove(new BasicDBObject());
+		storage.save(obj);
+
+		assertEquals(1, getCollection(PlainTestClass.class).count());
+
+	}
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import de.inovex.jmom.test.PlainTestClass;
+import de.inovex.jmom.test.SimpleReferenceClass;
+import de.inovex.jmom.test.SimpleReferencedClass;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link DocumentCache}. To check whether a document has been read
+ * from the cache, the documents are removed from database behind the back
+ * of the storage.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageDocumentCacheTest extends AbstractStorageTest {
+	
+	private Config config;
+	
+	@Before
+	public void createConfig() {
+		config = new Config();
+		config.setDocumentCacheSize(100);
+		storage.setConfig(config);
+	}
+	
+	@After
+	public void resetConfig() {
+		storage.setConfig(new Config());
+	}
+	
+	/**
+	 * Removes all documents of a class without the storage noticing.
+	 */
+	private void removeFromDatabase(Class<?> clazz) {
+		DBCollection coll = getCollection(clazz);
+		coll.remove(new BasicDBObject());
+	}
+	
+	private ObjectId saveObject(Object obj) {
+		storage.save(obj);
+		return storage.getCache().getId(obj);
+	}
+	
+	@Test
+	public void testFindByObjectIdCached() {
+		
+		ObjectId id = saveObject(new PlainTestClass(42));
+		assertEquals(new PlainTestClass(42), storage.findByObjectId(PlainTestClass.class, id));
+		
+		removeFromDatabase(PlainTestClass.class);
+		
+		assertEquals(new PlainTestClass(42), storage.findByObjectId(PlainTestClass.class, id));
+		
+	}
+	
+	@Test
+	public void testDisabled() {
+		
+		storage.setConfig(new Config());
+		
+		ObjectId id = saveObject(new PlainTestClass(42));
+		assertNotNull(storage.findByObjectId(PlainTestClass.class, id));
+		
+		removeFromDatabase(PlainTestClass.class);
+		
+		assertNull(storage.findByObjectId(PlainTestClass.class, id));
+		assertEquals(0, storage.getDocumentCache().size());
+		
+	}
+	
+	/**
+	 * Saving or deleting an object must remove its document from the cache.
+	 */
+	@Test
+	public void testInvalidate() {
+		
+		PlainTestClass obj = new PlainTestClass(1);
+		ObjectId id = saveObject(obj);
+		storage.findByObjectId(PlainTestClass.class, id);
+		assertEquals(1, storage.getDocumentCache().size());
+		
+		storage.save(obj);
+		assertEquals(0, storage.getDocumentCache().size());
+		
+		storage.findByObjectId(PlainTestClass.class, id);
+		storage.delete(obj);
+		assertEquals(0, storage.getDocumentCache().size());
+		assertNull(storage.findByObjectId(PlainTestClass.class, id));
+		
+	}
+	
+	@Test
+	public void testTtl() throws Exception {
+		
+		config.setDocumentCacheTtl(1);
+		
+		ObjectId id = saveObject(new PlainTestClass(42));
+		assertNotNull(storage.findByObjectId(PlainTestClass.class, id));
+		
+		removeFromDatabase(PlainTestClass.class);
+		Thread.sleep(10);
+		
+		assertNull(storage.findByObjectId(PlainTestClass.class, id));
+		
+	}
+	
+	@Test
+	public void testReferenceCached() {
+		
+		SimpleReferenceClass ref = new SimpleReferenceClass(42);
+		ref.setRef(new SimpleReferencedClass(23));
+		ObjectId id = saveObject(ref);
+		
+		assertEquals(ref, storage.findByObjectId(SimpleReferenceClass.class, id));
+		
+		removeFromDatabase(SimpleReferencedClass.class);
+		
+		assertEquals(ref, storage.findByObjectId(SimpleReferenceClass.class, id));
+		
+	}
+	
+	@Test
+	public void testLruEviction() {
+		
+		config.setDocumentCacheSize(2);
+		DocumentCache cache = storage.getDocumentCache();
+		
+		cache.put("coll", new BasicDBObject(Storage.ID_FIELD, 1), cache.getStamp());
+		cache.put("coll", new BasicDBObject(Storage.ID_FIELD, 2), cache.getStamp());
+		// Use 1, so 2 is the least recently used document
+		assertNotNull(cache.get("coll", 1));
+		cache.put("coll", new BasicDBObject(Storage.ID_FIELD, 3), cache.getStamp());
+		
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get("coll", 1));
+		assertNull(cache.get("coll", 2));
+		assertNotNull(cache.get("coll", 3));
+		
+	}
+	
+	/**
+	 * A document, that has been invalidated while it was read, must not be
+	 * cached, because it might be outdated.
+	 */
+	@Test
+	public void testInvalidateWhileReading() {
+		
+		config.setDocumentCacheSize(10);
+		DocumentCache cache = storage.getDocumentCache();
+		
+		long stamp = cache.getStamp();
+		cache.invalidate("coll", 1);
+		cache.put("coll", new BasicDBObject(Storage.ID_FIELD, 1), stamp);
+		assertNull(cache.get("coll", 1));
+		
+		// Reading again afterwards must cache the document.
+		cache.put("coll", new BasicDBObject(Storage.ID_FIELD, 1), cache.getStamp());
+		assertNotNull(cache.get("coll", 1));
+		
+	}
+	
+	/**
+	 * With TinyLFU a document requested only once must not replace a document,
+	 * that is requested often.
+	 */
+	@Test
+	public void testTinyLfuAdmission() {
+		
+		config.setDocumentCacheSize(1);
+		config.setDocumentCachePolicy(Config.EvictionPolicy.TINY_LFU);
+		DocumentCache cache = storage.getDocumentCache();
+		
+		DBObject hot = new BasicDBObject(Storage.ID_FIELD, "hot");
+		assertNull(cache.get("coll", "hot"));
+		cache.put("coll", hot, cache.getStamp());
+		for(int i = 0; i < 5; i++) {
+			assertSame(hot, cache.get("coll", "hot"));
+		}
+		
+		assertNull(cache.get("coll", "cold"));
+		cache.put("coll", new BasicDBObject(Storage.ID_FIELD, "cold"), cache.getStamp());
+		
+		assertSame(hot, cache.get("coll", "hot"));
+		assertNull(cache.get("coll", "cold"));
+		
+	}
+	
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import de.inovex.jmom.test.GraphTestClass;
+import de.inovex.jmom.test.PlainTestClass;
+import de.inovex.jmom.test.PseudoPrimitiveTestClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests reading several objects at once with {@link Storage#findByObjectIds(java.lang.Class, java.util.Collection)}.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageFindByIdsTest extends AbstractStorageTest {
+
+	/**
+	 * Stores objects behind the back of the storage, so they aren't cached.
+	 */
+	private List<ObjectId> insertObjects(int count) {
+		List<ObjectId> ids = new ArrayList<ObjectId>();
+		for(int i = 0; i < count; i++) {
+			DBObject dbobj = new BasicDBObject("key", i);
+			storage.saveDBObject(dbobj, PlainTestClass.class.getCanonicalName());
+			ids.add((ObjectId)dbobj.get(Storage.ID_FIELD));
+		}
+		return ids;
+	}
+
+	@Test
+	public void testRequestedOrder() {
+
+		List<ObjectId> ids = insertObjects(10);
+		Collections.reverse(ids);
+
+		List<PlainTestClass> found = storage.findByObjectIds(PlainTestClass.class, ids);
+		assertEquals(10, found.size());
+		for(int i = 0; i < 10; i++) {
+			assertEquals(new PlainTestClass(9 - i), found.get(i));
+		}
+
+	}
+
+	@Test
+	public void testMissingIds() {
+
+		List<ObjectId> ids = insertObjects(3);
+
+		List<PlainTestClass> found = storage.findByObjectIds(PlainTestClass.class,
+				Arrays.asList(new ObjectId(), ids.get(2), new ObjectId(), ids.get(0)));
+
+		assertEquals(Arrays.asList(new PlainTestClass(2), new PlainTestClass(0)), found);
+		assertTrue(storage.findByObjectIds(PlainTestClass.class, Collections.<ObjectId>emptyList()).isEmpty());
+
+	}
+
+	/**
+	 * Objects, that are still cached, must be returned as they are.
+	 */
+	@Test
+	public void testCachedObjects() {
+
+		PlainTestClass saved = new PlainTestClass(1);
+		storage.save(saved);
+		ObjectId savedId = storage.getCache().getId(saved);
+		List<ObjectId> ids = insertObjects(2);
+
+		List<PlainTestClass> found = storage.findByObjectIds(PlainTestClass.class,
+				Arrays.asList(ids.get(0), savedId, ids.get(1)));
+
+		assertEquals(3, found.size());
+		assertSame(saved, found.get(1));
+		assertEquals(ids.get(0), storage.getCache().getId(found.get(0)));
+		assertEquals(ids.get(1), storage.getCache().getId(found.get(2)));
+
+	}
+
+	/**
+	 * Objects, that have only been loaded partially, must be read again, 
+	 * no matter whether dirty tracking is enabled.
+	 */
+	@Test
+	public void testPartiallyLoadedObjects() {
+		
+		PseudoPrimitiveTestClass obj = new PseudoPrimitiveTestClass();
+		obj.setIntVal(1);
+		obj.setStringVal("foo");
+		storage.save(obj);
+		ObjectId id = storage.getCache().getId(obj);
+		
+		try {
+			for(boolean dirtyTracking : new boolean[] { true, false }) {
+				Config config = new Config();
+				config.setDirtyTrackingEnabled(dirtyTracking);
+				storage.setConfig(config);
+				
+				PseudoPrimitiveTestClass partial = getSingleResult(storage.findAll(PseudoPrimitiveTestClass.class, "intVal"));
+				assertNull(partial.getStringVal());
+				
+				PseudoPrimitiveTestClass found = getSingleResult(storage.findByObjectIds(PseudoPrimitiveTestClass.class, 
+						Arrays.asList(id)));
+				assertNotSame(partial, found);
+				assertEquals("foo", found.getStringVal());
+				
+				// The completely loaded object is cached now.
+				assertSame(found, getSingleResult(storage.findByObjectIds(PseudoPrimitiveTestClass.class, 
+						Arrays.asList(id))));
+			}
+		} finally {
+			storage.setConfig(new Config());
+		}
+		
+	}
+	
+	/**
+	 * A partially loaded object stays partial, when it is reused as the 
+	 * reference of another object, that is loaded completely.
+	 */
+	@Test
+	public void testPartiallyLoadedReference() {
+		
+		GraphTestClass parent = new GraphTestClass(1);
+		GraphTestClass child = new GraphTestClass(2);
+		parent.setNext(child);
+		storage.save(parent);
+		ObjectId parentId = storage.getCache().getId(parent);
+		ObjectId childId = storage.getCache().getId(child);
+		
+		try {
+			for(boolean dirtyTracking : new boolean[] { true, false }) {
+				Config config = new Config();
+				config.setDirtyTrackingEnabled(dirtyTracking);
+				storage.setConfig(config);
+				
+				List<GraphTestClass> partial = storage.findAll(GraphTestClass.class, "next");
+				assertEquals(2, partial.size());
+				
+				GraphTestClass loaded = storage.findByObjectId(GraphTestClass.class, parentId);
+				assertEquals(1, loaded.getKey());
+				assertEquals(0, loaded.getNext().getKey());
+				
+				GraphTestClass found = getSingleResult(storage.findByObjectIds(GraphTestClass.class, 
+						Arrays.asList(childId)));
+				assertNotSame(loaded.getNext(), found);
+				assertEquals(2, found.getKey());
+			}
+		} finally {
+			storage.setConfig(new Config());
+		}
+		
+	}
+	
+	/**
+	 * More ids than fit into a single query must be split into several queries.
+	 */
+	@Test
+	public void testManyIds() {
+
+		List<ObjectId> ids = insertObjects(ReferenceResolver.MAX_IDS_PER_QUERY + 50);
+
+		List<PlainTestClass> found = storage.findByObjectIds(PlainTestClass.class, ids);
+		assertEquals(ids.size(), found.size());
+		assertEquals(new PlainTestClass(ids.size() - 1), found.get(ids.size() - 1));
+
+	}
+
+}
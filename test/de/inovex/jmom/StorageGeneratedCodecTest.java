@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.test.GeneratedCodecTestClass;
+import de.inovex.jmom.test.PlainTestClass;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests classes with a {@link GeneratedCodec} created by the annotation processor.
+ * The processor must run, when the tests are compiled, which the project 
+ * configures with {@code javac.test.processorpath}.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageGeneratedCodecTest extends AbstractStorageTest {
+	
+	@Test
+	public void testCodecGenerated() {
+		
+		GeneratedCodec<GeneratedCodecTestClass> codec = CodecRegistry.get(GeneratedCodecTestClass.class);
+		assertNotNull("No codec has been generated. The tests must be compiled with "
+				+ "annotation processing enabled (see javac.test.processorpath).", codec);
+		
+		// count and flag are accessible, name, tags and secret are private
+		// and version is final
+		assertTrue(codec.isAccessible(0));
+		assertTrue(codec.isAccessible(1));
+		assertFalse(codec.isAccessible(2));
+		assertFalse(codec.isAccessible(3));
+		assertFalse(codec.isAccessible(4));
+		assertFalse(codec.isAccessible(5));
+		
+		assertNull(CodecRegistry.get(PlainTestClass.class));
+		
+	}
+	
+	@Test
+	public void testFieldList() {
+		assertEquals(6, FieldList.valueOf(GeneratedCodecTestClass.class).size());
+	}
+	
+	@Test
+	public void testSaveAndLoad() {
+		
+		GeneratedCodecTestClass obj = new GeneratedCodecTestClass(42, true, "name", 
+				Arrays.asList("a", "b"), 2.3, 7);
+		storage.save(obj);
+		
+		assertEquals(obj, getSingleResult(storage.findAll(GeneratedCodecTestClass.class)));
+		
+	}
+	
+	/**
+	 * Private fields must be converted without calling the getter or setter,
+	 * like without a generated codec. The getter of name would return a default
+	 * instead of {@code null}.
+	 */
+	@Test
+	public void testNullValues() {
+		
+		GeneratedCodecTestClass obj = new GeneratedCodecTestClass(0, false, null, null, 0, 0);
+		storage.save(obj);
+		
+		assertEquals(obj, getSingleResult(storage.findAll(GeneratedCodecTestClass.class)));
+		
+	}
+	
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import de.inovex.jmom.test.GraphTestClass;
+import java.util.List;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests saving object graphs with shared objects and cycles, one by one and
+ * with {@link Storage#saveGraph(java.lang.Object)}.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageGraphTest extends AbstractStorageTest {
+
+	private DBCollection getCollection() {
+		return getCollection(GraphTestClass.class);
+	}
+
+	/**
+	 * Returns the id the stored document of the given object references in its next field.
+	 */
+	private Object getNextId(GraphTestClass obj) {
+		return getNextId(storage, obj);
+	}
+
+	/**
+	 * Returns the id the stored document of the given object references in its
+	 * next field, for an object saved by another storage.
+	 */
+	private Object getNextId(Storage st, GraphTestClass obj) {
+		DBObject dbobj = getCollection().findOne(new BasicDBObject(Storage.ID_FIELD, st.getCache().getId(obj)));
+		return ((DBRef)dbobj.get("next")).getId();
+	}
+
+	@Test
+	public void testCycle() {
+
+		GraphTestClass a = new GraphTestClass(1);
+		GraphTestClass b = new GraphTestClass(2);
+		a.setNext(b);
+		b.setNext(a);
+
+		storage.save(a);
+
+		ObjectId idA = storage.getCache().getId(a);
+		ObjectId idB = storage.getCache().getId(b);
+		assertNotNull(idA);
+		assertNotNull(idB);
+		assertEquals(2, getCollection().count());
+		assertEquals(idB, getNextId(a));
+		assertEquals(idA, getNextId(b));
+
+	}
+
+	@Test
+	public void testSelfReference() {
+
+		GraphTestClass a = new GraphTestClass(1);
+		a.setNext(a);
+		a.getChildren().add(a);
+
+		storage.save(a);
+
+		assertEquals(1, getCollection().count());
+		assertEquals(storage.getCache().getId(a), getNextId(a));
+
+	}
+
+	/**
+	 * An object referenced twice must only be written once.
+	 */
+	@Test
+	public void testSharedChild() {
+
+		CountingDBHandler handler = createCountingHandler();
+		Storage counting = Storage.getInstance(handler);
+
+		GraphTestClass root = new GraphTestClass(0);
+		GraphTestClass left = new GraphTestClass(1);
+		GraphTestClass right = new GraphTestClass(2);
+		GraphTestClass shared = new GraphTestClass(3);
+		root.getChildren().add(left);
+		root.getChildren().add(right);
+		left.setNext(shared);
+		right.setNext(shared);
+		shared.setNext(root);
+
+		counting.save(root);
+
+		assertEquals(4, getCollection().count());
+		assertEquals(getNextId(counting, left), getNextId(counting, right));
+		assertEquals(counting.getCache().getId(root), getNextId(counting, shared));
+
+		// One insert per object, so the shared child hasn't been written twice.
+		assertEquals(4, handler.getCalls("onInsert"));
+		assertEquals(0, handler.getCalls("onSave"));
+		assertEquals(0, handler.getCalls("onUpdate"));
+		assertEquals(0, handler.getCalls("onUpdateFields"));
+
+	}
+
+	/**
+	 * Saving a stored cycle again must not recurse endlessly.
+	 */
+	@Test
+	public void testSaveCycleTwice() {
+
+		GraphTestClass a = new GraphTestClass(1);
+		GraphTestClass b = new GraphTestClass(2);
+		a.setNext(b);
+		b.setNext(a);
+		storage.save(a);
+
+		b.getChildren().add(new GraphTestClass(3));
+		storage.save(a);
+		storage.saveMultiple(java.util.Arrays.asList(a, b));
+
+		assertEquals(3, getCollection().count());
+
+	}
+
+	/**
+	 * All objects of a graph must be written with one insert per collection
+	 * and {@link Config#getBulkWriteSize()} objects.
+	 */
+	@Test
+	public void testSaveGraph() {
+
+		CountingDBHandler handler = createCountingHandler();
+		Storage counting = Storage.getInstance(handler);
+		Config config = new Config();
+		config.setBulkWriteSize(50);
+		counting.setConfig(config);
+
+		GraphTestClass root = new GraphTestClass(0);
+		GraphTestClass shared = new GraphTestClass(-1);
+		shared.setNext(root);
+		for(int i = 1; i <= 200; i++) {
+			GraphTestClass child = new GraphTestClass(i);
+			child.setNext(shared);
+			root.getChildren().add(child);
+		}
+
+		counting.saveGraph(root);
+
+		assertEquals(202, getCollection().count());
+		ObjectId sharedId = counting.getCache().getId(shared);
+		for(GraphTestClass child : root.getChildren()) {
+			assertEquals(sharedId, getNextId(counting, child));
+		}
+		assertEquals(counting.getCache().getId(root), getNextId(counting, shared));
+
+		DBObject dbroot = getCollection().findOne(new BasicDBObject(Storage.ID_FIELD, counting.getCache().getId(root)));
+		assertEquals(200, ((List<?>)dbroot.get("children")).size());
+
+		// 202 objects in chunks of 50
+		assertEquals(5, handler.getCalls("onInsert"));
+		assertEquals(0, handler.getCalls("onUpdate"));
+		assertEquals(0, handler.getCalls("onSave"));
+		assertEquals(0, handler.getCalls("onUpdateFields"));
+
+	}
+
+	/**
+	 * Saving a stored graph again must update the changed objects and insert
+	 * the new ones.
+	 */
+	@Test
+	public void testSaveGraphAgain() {
+
+		GraphTestClass a = new GraphTestClass(1);
+		GraphTestClass b = new GraphTestClass(2);
+		a.setNext(b);
+		b.setNext(a);
+		storage.saveGraph(a);
+		ObjectId idB = storage.getCache().getId(b);
+
+		GraphTestClass c = new GraphTestClass(3);
+		b.setNext(c);
+		c.setNext(a);
+		storage.saveGraph(a);
+
+		assertEquals(3, getCollection().count());
+		assertEquals(idB, storage.getCache().getId(b));
+		assertEquals(storage.getCache().getId(c), getNextId(b));
+		assertEquals(storage.getCache().getId(a), getNextId(c));
+
+	}
+
+}
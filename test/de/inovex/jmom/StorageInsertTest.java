@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import de.inovex.jmom.exception.SerializationException;
+import de.inovex.jmom.test.CascadeTestClass;
+import de.inovex.jmom.test.PseudoPrimitiveTestClass;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests, that new objects get their id from the storage and are inserted
+ * with that id.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageInsertTest extends AbstractStorageTest {
+
+	@Test
+	public void testInsertWithCachedId() {
+
+		PseudoPrimitiveTestClass obj = new PseudoPrimitiveTestClass();
+		obj.setIntVal(1);
+		storage.save(obj);
+		ObjectId id = storage.getCache().getId(obj);
+		assertNotNull(id);
+
+		DBObject dbobj = getCollection(PseudoPrimitiveTestClass.class).findOne(new BasicDBObject(Storage.ID_FIELD, id));
+		assertEquals(1, dbobj.get("intVal"));
+
+		// Saving again must write the same document.
+		obj.setIntVal(2);
+		storage.save(obj);
+		assertEquals(id, storage.getCache().getId(obj));
+		assertEquals(1, getCollection(PseudoPrimitiveTestClass.class).count());
+		assertEquals(2, getCollection(PseudoPrimitiveTestClass.class).findOne().get("intVal"));
+
+	}
+
+	/**
+	 * An object, that couldn't be written, must not keep its id. Referenced
+	 * objects, that have been written before, stay stored.
+	 */
+	@Test
+	public void testFailedWrite() {
+
+		PseudoPrimitiveTestClass saved = new PseudoPrimitiveTestClass();
+		PseudoPrimitiveTestClass unsaved = new PseudoPrimitiveTestClass();
+		CascadeTestClass obj = new CascadeTestClass();
+		obj.setSaveRef(saved);
+		obj.setNoneRef(unsaved);
+
+		try {
+			storage.save(obj);
+			fail("Saving a reference to an unsaved object with cascade NONE must fail.");
+		} catch(SerializationException ex) {
+			// expected
+		}
+
+		assertNull(storage.getCache().getId(obj));
+		assertNull(storage.getCache().getId(unsaved));
+		assertNotNull(storage.getCache().getId(saved));
+		assertEquals(0, getCollection(CascadeTestClass.class).count());
+
+		obj.setNoneRef(null);
+		storage.save(obj);
+		assertNotNull(storage.getCache().getId(obj));
+		assertEquals(1, getCollection(CascadeTestClass.class).count());
+
+	}
+
+}
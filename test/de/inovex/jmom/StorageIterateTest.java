@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.test.PlainTestClass;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests iterating over objects with an {@link ObjectCursor}.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageIterateTest extends AbstractStorageTest {
+
+	private List<PlainTestClass> saveObjects(int count) {
+		List<PlainTestClass> objects = new ArrayList<PlainTestClass>(count);
+		for(int i = 0; i < count; i++) {
+			PlainTestClass obj = new PlainTestClass(i);
+			storage.save(obj);
+			objects.add(obj);
+		}
+		return objects;
+	}
+
+	/**
+	 * Iterating over several batches must return every object once and in order.
+	 */
+	@Test
+	public void testIterateBatches() {
+
+		List<PlainTestClass> expected = saveObjects(25);
+
+		List<PlainTestClass> found = new ArrayList<PlainTestClass>();
+		for(PlainTestClass obj : storage.iterate(PlainTestClass.class, 10)) {
+			found.add(obj);
+		}
+
+		assertEquals(expected, found);
+
+	}
+
+	/**
+	 * A collection size, that is a multiple of the batch size, must not
+	 * return an additional element.
+	 */
+	@Test
+	public void testIterateExactBatches() {
+
+		List<PlainTestClass> expected = saveObjects(20);
+
+		List<PlainTestClass> found = new ArrayList<PlainTestClass>();
+		ObjectCursor<PlainTestClass> cursor = storage.iterate(PlainTestClass.class, 10);
+		while(cursor.hasNext()) {
+			found.add(cursor.next());
+		}
+
+		assertEquals(expected, found);
+		assertFalse(cursor.hasNext());
+
+	}
+
+	/**
+	 * After closing the cursor, no more objects must be returned.
+	 */
+	@Test
+	public void testClose() {
+
+		saveObjects(5);
+
+		ObjectCursor<PlainTestClass> cursor = storage.iterate(PlainTestClass.class, 2);
+		assertTrue(cursor.hasNext());
+		assertEquals(new PlainTestClass(0), cursor.next());
+		cursor.close();
+
+		assertFalse(cursor.hasNext());
+
+	}
+
+	@Test
+	public void testIterateEmpty() {
+		assertFalse(storage.iterate(PlainTestClass.class).hasNext());
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.test.CollectionTestClass;
+import de.inovex.jmom.test.PlainTestClass;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the decoding of objects, if multithreading is enabled.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageMultithreadingTest extends AbstractStorageTest {
+
+	private static final int OBJECT_COUNT = 1000;
+
+	@Before
+	public void createConfig() {
+		Config config = new Config();
+		config.setMultithreadingEnabled(true);
+		config.setDecodePoolSize(4);
+		config.setDecodeChunkSize(16);
+		config.setDecodeThreshold(32);
+		storage.setConfig(config);
+	}
+
+	@After
+	public void resetConfig() {
+		storage.setConfig(new Config());
+	}
+
+	/**
+	 * Decoding several chunks on the thread pool must return all objects
+	 * in the order they came from database.
+	 */
+	@Test
+	public void testFindAllOrder() {
+
+		List<PlainTestClass> expected = new ArrayList<PlainTestClass>(OBJECT_COUNT);
+		for(int i = 0; i < OBJECT_COUNT; i++) {
+			PlainTestClass obj = new PlainTestClass(i);
+			storage.save(obj);
+			expected.add(obj);
+		}
+
+		assertEquals(expected, storage.findAll(PlainTestClass.class));
+
+	}
+
+	/**
+	 * Objects, that are decoded on the thread pool, distribute their collection
+	 * elements to the same pool. This must neither deadlock nor change the
+	 * order of the elements.
+	 */
+	@Test
+	public void testNestedCollectionDecoding() {
+
+		List<CollectionTestClass> expected = new ArrayList<CollectionTestClass>();
+		for(int i = 0; i < 64; i++) {
+			CollectionTestClass obj = new CollectionTestClass();
+			List<PlainTestClass> refs = new ArrayList<PlainTestClass>();
+			LinkedList<Integer> ints = new LinkedList<Integer>();
+			for(int j = 0; j < 100; j++) {
+				refs.add(new PlainTestClass(i * 100 + j));
+				ints.add(j);
+			}
+			obj.setReferenceList(refs);
+			obj.setIntList(ints);
+			storage.save(obj);
+			expected.add(obj);
+		}
+
+		List<CollectionTestClass> found = storage.findAll(CollectionTestClass.class);
+		assertEquals(expected.size(), found.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getReferenceList(), found.get(i).getReferenceList());
+			assertEquals(expected.get(i).getIntList(), found.get(i).getIntList());
+		}
+
+	}
+
+	/**
+	 * Less objects than the threshold will be decoded on the calling thread.
+	 */
+	@Test
+	public void testFindAllBelowThreshold() {
+
+		PlainTestClass obj = new PlainTestClass(42);
+		storage.save(obj);
+
+		assertEquals(obj, getSingleResult(storage.findAll(PlainTestClass.class)));
+
+	}
+
+}
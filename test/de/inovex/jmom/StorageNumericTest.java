@@ -15,6 +15,8 @@
  */
 package de.inovex.jmom;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
 import de.inovex.jmom.test.PseudoPrimitiveTestClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -219,5 +221,36 @@ public class StorageNumericTest extends AbstractStorageTest {
 		
 	}
 	
+	/**
+	 * Numbers stored with another type than the field (e.g. by other clients)
+	 * must be converted to the type of the field.
+	 */
+	@Test
+	public void testConvertNumberTypes() {
+		
+		DBObject dbobj = new BasicDBObject("intVal", 42L);
+		dbobj.put("intClassVal", 23L);
+		dbobj.put("longVal", 42);
+		dbobj.put("longClassVal", 23);
+		dbobj.put("doubleVal", 42);
+		dbobj.put("doubleClassVal", 23L);
+		dbobj.put("floatVal", 4.5);
+		dbobj.put("shortVal", 7);
+		dbobj.put("byteVal", 8L);
+		
+		storage.saveDBObject(dbobj, PseudoPrimitiveTestClass.class.getCanonicalName());
+		
+		PseudoPrimitiveTestClass res = getSingleResult(storage.findAll(PseudoPrimitiveTestClass.class));
+		assertEquals(42, res.getIntVal());
+		assertEquals(23, (Object)res.getIntClassVal());
+		assertEquals(42L, res.getLongVal());
+		assertEquals(23L, (Object)res.getLongClassVal());
+		assertEquals(42.0, res.getDoubleVal(), 0.0);
+		assertEquals(23.0, (Object)res.getDoubleClassVal());
+		assertEquals(4.5f, res.getFloatVal(), 0.0f);
+		assertEquals((short)7, res.getShortVal());
+		assertEquals((byte)8, res.getByteVal());
+		
+	}
 	
 }
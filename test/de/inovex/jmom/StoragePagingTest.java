@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.test.PlainTestClass;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests reading pages of objects with {@link Storage#findAll(java.lang.Class, de.inovex.jmom.Sort, int, int)}
+ * and {@link Storage#findAllAfter(java.lang.Class, de.inovex.jmom.Sort, java.lang.Object, int)}.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StoragePagingTest extends AbstractStorageTest {
+
+	private List<PlainTestClass> saveObjects(int count) {
+		List<PlainTestClass> objects = new ArrayList<PlainTestClass>();
+		for(int i = 0; i < count; i++) {
+			objects.add(new PlainTestClass(i));
+		}
+		// Store them in another order, than they will be sorted
+		List<PlainTestClass> shuffled = new ArrayList<PlainTestClass>(objects);
+		Collections.reverse(shuffled);
+		storage.saveMultiple(shuffled);
+		return objects;
+	}
+
+	@Test
+	public void testSortSkipLimit() {
+
+		List<PlainTestClass> objects = saveObjects(30);
+
+		assertEquals(objects.subList(10, 20), storage.findAll(PlainTestClass.class, Sort.ascending("key"), 10, 10));
+		assertEquals(objects.subList(25, 30), storage.findAll(PlainTestClass.class, Sort.ascending("key"), 25, 10));
+		assertEquals(objects, storage.findAll(PlainTestClass.class, Sort.ascending("key"), 0, 0));
+
+		List<PlainTestClass> top = storage.findAll(PlainTestClass.class, Sort.descending("key"), 0, 3);
+		assertEquals(3, top.size());
+		assertEquals(new PlainTestClass(29), top.get(0));
+		assertEquals(new PlainTestClass(27), top.get(2));
+
+	}
+
+	@Test
+	public void testKeysetPaging() {
+
+		List<PlainTestClass> objects = saveObjects(25);
+
+		List<PlainTestClass> found = new ArrayList<PlainTestClass>();
+		List<PlainTestClass> page = storage.findAllAfter(PlainTestClass.class, Sort.ascending("key"), null, 10);
+		while(!page.isEmpty()) {
+			assertTrue(page.size() <= 10);
+			found.addAll(page);
+			page = storage.findAllAfter(PlainTestClass.class, Sort.ascending("key"), page.get(page.size() - 1), 10);
+		}
+
+		assertEquals(objects, found);
+
+	}
+
+	/**
+	 * Objects with equal values in the sort field must be ordered by their
+	 * id, so no object is skipped or returned twice.
+	 */
+	@Test
+	public void testKeysetPagingEqualValues() {
+
+		List<PlainTestClass> objects = new ArrayList<PlainTestClass>();
+		for(int i = 0; i < 15; i++) {
+			objects.add(new PlainTestClass(i % 3));
+		}
+		storage.saveMultiple(objects);
+
+		int count = 0;
+		List<PlainTestClass> page = storage.findAllAfter(PlainTestClass.class, Sort.descending("key"), null, 4);
+		PlainTestClass previous = null;
+		while(!page.isEmpty()) {
+			for(PlainTestClass obj : page) {
+				if(previous != null) {
+					assertTrue(previous.hashCode() >= obj.hashCode());
+				}
+				previous = obj;
+				count++;
+			}
+			page = storage.findAllAfter(PlainTestClass.class, Sort.descending("key"), page.get(page.size() - 1), 4);
+		}
+
+		assertEquals(objects.size(), count);
+
+	}
+
+	@Test
+	public void testKeysetPagingById() {
+
+		saveObjects(12);
+
+		List<PlainTestClass> first = storage.findAllAfter(PlainTestClass.class, null, null, 5);
+		List<PlainTestClass> second = storage.findAllAfter(PlainTestClass.class, null, first.get(4), 0);
+		assertEquals(5, first.size());
+		assertEquals(7, second.size());
+
+		List<PlainTestClass> all = new ArrayList<PlainTestClass>(first);
+		all.addAll(second);
+		assertEquals(storage.findAll(PlainTestClass.class, Sort.ascending(Sort.ID), 0, 0), all);
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownSortField() {
+		storage.findAll(PlainTestClass.class, Sort.ascending("unknown"), 0, 10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeSkip() {
+		storage.findAll(PlainTestClass.class, Sort.ascending("key"), -1, 10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKeysetUnknownObject() {
+		storage.findAllAfter(PlainTestClass.class, Sort.ascending("key"), new PlainTestClass(1), 10);
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.test.PlainTestClass;
+import de.inovex.jmom.test.PseudoPrimitiveTestClass;
+import de.inovex.jmom.test.SimpleReferenceClass;
+import de.inovex.jmom.test.SimpleReferencedClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests reading objects with a {@link Query}.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageQueryTest extends AbstractStorageTest {
+
+	private void saveObjects(int count) {
+		List<PlainTestClass> objects = new ArrayList<PlainTestClass>();
+		for(int i = 0; i < count; i++) {
+			objects.add(new PlainTestClass(i));
+		}
+		storage.saveMultiple(objects);
+	}
+
+	@Test
+	public void testIs() {
+
+		saveObjects(20);
+
+		assertEquals(new PlainTestClass(7), getSingleResult(storage.query(PlainTestClass.class)
+				.where("key").is(7).list()));
+		assertTrue(storage.query(PlainTestClass.class).where("key").is(42).list().isEmpty());
+		assertNull(storage.query(PlainTestClass.class).where("key").is(42).first());
+
+	}
+
+	@Test
+	public void testRange() {
+
+		saveObjects(20);
+
+		List<PlainTestClass> found = storage.query(PlainTestClass.class)
+				.where("key").gte(5).and("key").lt(8)
+				.sort(Sort.ascending("key"))
+				.list();
+
+		assertEquals(Arrays.asList(new PlainTestClass(5), new PlainTestClass(6), new PlainTestClass(7)), found);
+
+	}
+
+	@Test
+	public void testInAndSkipLimit() {
+
+		saveObjects(20);
+
+		List<PlainTestClass> found = storage.query(PlainTestClass.class)
+				.where("key").in(1, 3, 5, 7, 9)
+				.sort(Sort.descending("key"))
+				.skip(1).limit(2)
+				.list();
+
+		assertEquals(Arrays.asList(new PlainTestClass(7), new PlainTestClass(5)), found);
+
+		assertEquals(15, storage.query(PlainTestClass.class).where("key").notIn(1, 3, 5, 7, 9).list().size());
+		assertEquals(19, storage.query(PlainTestClass.class).where("key").ne(3).list().size());
+
+	}
+
+	@Test
+	public void testPseudoPrimitives() {
+
+		PseudoPrimitiveTestClass a = new PseudoPrimitiveTestClass();
+		a.setStringVal("foo");
+		a.setCharVal('x');
+		PseudoPrimitiveTestClass b = new PseudoPrimitiveTestClass();
+		b.setStringVal("bar");
+		b.setCharVal('y');
+		storage.saveMultiple(Arrays.asList(a, b));
+
+		assertEquals("foo", getSingleResult(storage.query(PseudoPrimitiveTestClass.class)
+				.where("stringVal").is("foo").list()).getStringVal());
+		assertEquals("bar", getSingleResult(storage.query(PseudoPrimitiveTestClass.class)
+				.where("charVal").is('y').list()).getStringVal());
+
+	}
+
+	@Test
+	public void testReference() {
+
+		SimpleReferencedClass referenced = new SimpleReferencedClass(1);
+		SimpleReferenceClass ref1 = new SimpleReferenceClass(1);
+		ref1.setRef(referenced);
+		SimpleReferenceClass ref2 = new SimpleReferenceClass(2);
+		ref2.setRef(new SimpleReferencedClass(2));
+		SimpleReferenceClass ref3 = new SimpleReferenceClass(3);
+		ref3.setRef(referenced);
+		storage.saveMultiple(Arrays.asList(ref1, ref2, ref3));
+
+		List<SimpleReferenceClass> found = storage.query(SimpleReferenceClass.class)
+				.where("ref").is(referenced).list();
+
+		assertEquals(new HashSet<SimpleReferenceClass>(Arrays.asList(ref1, ref3)),
+				new HashSet<SimpleReferenceClass>(found));
+
+	}
+
+	@Test
+	public void testById() {
+
+		PlainTestClass obj = new PlainTestClass(5);
+		storage.save(obj);
+		storage.save(new PlainTestClass(6));
+
+		assertEquals(obj, storage.query(PlainTestClass.class).where(Sort.ID).is(storage.getCache().getId(obj)).first());
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownField() {
+		storage.query(PlainTestClass.class).where("unknown");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsavedReference() {
+		storage.query(SimpleReferenceClass.class).where("ref").is(new SimpleReferencedClass(1));
+	}
+
+}
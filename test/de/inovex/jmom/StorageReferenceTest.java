@@ -15,8 +15,14 @@
  */
 package de.inovex.jmom;
 
+import de.inovex.jmom.test.GraphTestClass;
 import de.inovex.jmom.test.SimpleReferenceClass;
 import de.inovex.jmom.test.SimpleReferencedClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -64,4 +70,77 @@ public class StorageReferenceTest extends AbstractStorageTest {
 		assertEquals("SimpleReferencedClass not equal", ref.getRef(), getSingleResult(storage.findAll(SimpleReferencedClass.class)));
 	}
 	
+	/**
+	 * With reference prefetching enabled, all references of the loaded
+	 * objects are fetched before decoding, with one query per 
+	 * {@link ReferenceResolver#MAX_IDS_PER_QUERY} ids. The result must be the same.
+	 */
+	@Test
+	public void testReferencePrefetch() {
+		
+		SimpleReferencedClass shared = new SimpleReferencedClass(-1);
+		List<SimpleReferenceClass> expected = new ArrayList<SimpleReferenceClass>();
+		for(int i = 0; i < 2 * ReferenceResolver.MAX_IDS_PER_QUERY + 20; i++) {
+			SimpleReferenceClass ref = new SimpleReferenceClass(i);
+			ref.setRef(i % 2 == 0 ? shared : new SimpleReferencedClass(i));
+			expected.add(ref);
+		}
+		storage.saveMultiple(expected);
+		// The shared object and every second object references its own one.
+		int referenced = 1 + expected.size() / 2;
+		int chunks = (referenced + ReferenceResolver.MAX_IDS_PER_QUERY - 1) / ReferenceResolver.MAX_IDS_PER_QUERY;
+		
+		// Use another storage, so no referenced object is cached yet.
+		CountingDBHandler handler = createCountingHandler();
+		Storage counting = Storage.getInstance(handler);
+		Config config = new Config();
+		config.setReferencePrefetchEnabled(true);
+		counting.setConfig(config);
+		
+		List<SimpleReferenceClass> found = counting.findAll(SimpleReferenceClass.class);
+		assertEquals(expected, found);
+		assertSame("Shared reference wasn't decoded to the same object", 
+				found.get(0).getRef(), found.get(2).getRef());
+		
+		assertEquals(2, chunks);
+		assertEquals(chunks, handler.getCalls("onGetByIds"));
+		assertEquals(0, handler.getCalls("onGetById"));
+		assertEquals(0, handler.getCalls("onFetchRef"));
+		
+	}
+	
+	/**
+	 * Documents loaded with a projection must not be used for references to
+	 * them, when references are prefetched. The referenced objects must be
+	 * read in full.
+	 */
+	@Test
+	public void testPartialReferencePrefetch() {
+		
+		GraphTestClass a = new GraphTestClass(1);
+		GraphTestClass b = new GraphTestClass(2);
+		GraphTestClass c = new GraphTestClass(3);
+		c.setNext(a);
+		a.setNext(b);
+		storage.save(c);
+		
+		// Use another storage, so no object is cached yet.
+		Storage st = Storage.getInstance(createCountingHandler());
+		Config config = new Config();
+		config.setReferencePrefetchEnabled(true);
+		st.setConfig(config);
+		
+		List<GraphTestClass> found = st.findAll(GraphTestClass.class, "next");
+		assertEquals(3, found.size());
+		Set<Integer> keys = new HashSet<Integer>();
+		for(GraphTestClass obj : found) {
+			assertEquals(0, obj.getKey());
+			if(obj.getNext() != null) {
+				keys.add(obj.getNext().getKey());
+			}
+		}
+		assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), keys);
+		
+	}
+	
 }
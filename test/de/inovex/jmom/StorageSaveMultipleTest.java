@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import de.inovex.jmom.test.PlainTestClass;
+import de.inovex.jmom.test.SimpleReferenceClass;
+import de.inovex.jmom.test.SimpleReferencedClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests storing several objects at once with {@link Storage#saveMultiple(java.lang.Iterable)}.
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageSaveMultipleTest extends AbstractStorageTest {
+
+	@Test
+	public void testSaveMultiple() {
+
+		List<PlainTestClass> expected = new ArrayList<PlainTestClass>();
+		for(int i = 0; i < 50; i++) {
+			expected.add(new PlainTestClass(i));
+		}
+
+		storage.saveMultiple(expected);
+
+		List<PlainTestClass> found = storage.findAll(PlainTestClass.class);
+		assertEquals(expected.size(), found.size());
+		assertEquals(new HashSet<PlainTestClass>(expected), new HashSet<PlainTestClass>(found));
+		for(PlainTestClass obj : expected) {
+			assertNotNull("Saved object hasn't been cached", storage.getCache().getId(obj));
+		}
+
+	}
+
+	/**
+	 * Saving new and already stored objects together must insert the new
+	 * and update the stored objects.
+	 */
+	@Test
+	public void testSaveMultipleMixed() {
+
+		PlainTestClass stored = new PlainTestClass(1);
+		storage.save(stored);
+
+		storage.saveMultiple(Arrays.asList(stored, new PlainTestClass(2), stored));
+
+		List<PlainTestClass> found = storage.findAll(PlainTestClass.class);
+		assertEquals(2, found.size());
+		assertTrue(found.contains(new PlainTestClass(1)));
+		assertTrue(found.contains(new PlainTestClass(2)));
+
+	}
+
+	/**
+	 * Objects referencing other objects of the same call must only be
+	 * stored once.
+	 */
+	@Test
+	public void testSaveMultipleReferences() {
+
+		SimpleReferencedClass referenced = new SimpleReferencedClass(23);
+		SimpleReferenceClass ref = new SimpleReferenceClass(42);
+		ref.setRef(referenced);
+
+		storage.saveMultiple(Arrays.asList(ref, referenced));
+
+		assertEquals(ref, getSingleResult(storage.findAll(SimpleReferenceClass.class)));
+		assertEquals(referenced, getSingleResult(storage.findAll(SimpleReferencedClass.class)));
+
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import de.inovex.jmom.exception.DeserializationException;
+import de.inovex.jmom.exception.NumericException;
+import de.inovex.jmom.test.PseudoPrimitiveTestClass;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests saving and loading primitive fields with {@link Config#getSpecializedCodecsEnabled() specialized codecs}.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class StorageSpecializedCodecTest extends AbstractStorageTest {
+	
+	private Config config;
+	
+	@Before
+	public void createConfig() {
+		config = new Config();
+		config.setSpecializedCodecsEnabled(true);
+		storage.setConfig(config);
+	}
+	
+	@After
+	public void resetConfig() {
+		storage.setConfig(new Config());
+	}
+	
+	private PseudoPrimitiveTestClass loadDBObject(DBObject dbobj) {
+		storage.saveDBObject(dbobj, PseudoPrimitiveTestClass.class.getCanonicalName());
+		return getSingleResult(storage.findAll(PseudoPrimitiveTestClass.class));
+	}
+	
+	@Test
+	public void testPrimitives() {
+		
+		PseudoPrimitiveTestClass obj = new PseudoPrimitiveTestClass();
+		obj.setByteVal(Byte.MIN_VALUE);
+		obj.setShortVal(Short.MAX_VALUE);
+		obj.setIntVal(Integer.MIN_VALUE);
+		obj.setLongVal(Long.MAX_VALUE);
+		obj.setFloatVal(Float.MAX_VALUE);
+		obj.setDoubleVal(Double.MIN_VALUE);
+		obj.setCharVal('x');
+		obj.setBoolVal(true);
+		obj.setIntClassVal(42);
+		obj.setStringVal("string");
+		
+		storage.save(obj);
+		
+		assertEquals(obj, getSingleResult(storage.findAll(PseudoPrimitiveTestClass.class)));
+		
+	}
+	
+	/**
+	 * Changing the configuration must switch between specialized and reflective codecs.
+	 */
+	@Test
+	public void testSwitchConfig() {
+		
+		PseudoPrimitiveTestClass obj = new PseudoPrimitiveTestClass();
+		obj.setIntVal(23);
+		obj.setDoubleVal(4.2);
+		
+		storage.save(obj);
+		storage.setConfig(new Config());
+		
+		assertEquals(obj, getSingleResult(storage.findAll(PseudoPrimitiveTestClass.class)));
+		
+	}
+	
+	@Test
+	public void testStringToPrimitive() {
+		
+		DBObject dbobj = new BasicDBObject("intVal", "42");
+		dbobj.put("doubleVal", "4.2");
+		dbobj.put("charVal", "c");
+		
+		PseudoPrimitiveTestClass res = loadDBObject(dbobj);
+		assertEquals(42, res.getIntVal());
+		assertEquals(4.2, res.getDoubleVal(), 0.0);
+		assertEquals('c', res.getCharVal());
+		
+	}
+	
+	@Test(expected=NumericException.class)
+	public void testIntException() {
+		config.setNumericBehavior(Config.NumericBehavior.EXCEPTION);
+		loadDBObject(new BasicDBObject("intVal", (long)Integer.MAX_VALUE + 1));
+	}
+	
+	@Test
+	public void testIntZero() {
+		config.setNumericBehavior(Config.NumericBehavior.ZERO_VALUE);
+		PseudoPrimitiveTestClass res = loadDBObject(new BasicDBObject("intVal", (long)Integer.MAX_VALUE + 1));
+		assertEquals(0, res.getIntVal());
+	}
+	
+	@Test(expected=DeserializationException.class)
+	public void testInvalidBoolean() {
+		loadDBObject(new BasicDBObject("boolVal", "true"));
+	}
+	
+}
@@ -123,4 +123,27 @@ public class StorageTest extends AbstractStorageTest {
 		
 	}
 	
+	/**
+	 * Loading only some fields of an object must leave all other fields
+	 * at their default values.
+	 */
+	@Test
+	public void testFindAllFields() {
+		
+		PseudoPrimitiveTestClass obj = new PseudoPrimitiveTestClass();
+		obj.setIntVal(42);
+		obj.setStringVal("Douglas Adams");
+		storage.save(obj);
+		
+		PseudoPrimitiveTestClass found = getSingleResult(storage.findAll(PseudoPrimitiveTestClass.class, "intVal"));
+		assertEquals(42, found.getIntVal());
+		assertNull(found.getStringVal());
+		
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testFindAllUnknownField() {
+		storage.findAll(PlainTestClass.class, "noSuchField");
+	}
+	
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom.test;
+
+import de.inovex.jmom.annotations.Reference;
+import java.util.List;
+
+/**
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class CascadeTestClass {
+	
+	private PseudoPrimitiveTestClass saveRef;
+	
+	@Reference(cascade = Reference.Cascade.NEW)
+	private PseudoPrimitiveTestClass newRef;
+	
+	@Reference(cascade = Reference.Cascade.NONE)
+	private PseudoPrimitiveTestClass noneRef;
+	
+	@Reference(cascade = Reference.Cascade.NEW)
+	private List<PseudoPrimitiveTestClass> newList;
+
+	public PseudoPrimitiveTestClass getSaveRef() {
+		return saveRef;
+	}
+
+	public void setSaveRef(PseudoPrimitiveTestClass saveRef) {
+		this.saveRef = saveRef;
+	}
+
+	public PseudoPrimitiveTestClass getNewRef() {
+		return newRef;
+	}
+
+	public void setNewRef(PseudoPrimitiveTestClass newRef) {
+		this.newRef = newRef;
+	}
+
+	public PseudoPrimitiveTestClass getNoneRef() {
+		return noneRef;
+	}
+
+	public void setNoneRef(PseudoPrimitiveTestClass noneRef) {
+		this.noneRef = noneRef;
+	}
+
+	public List<PseudoPrimitiveTestClass> getNewList() {
+		return newList;
+	}
+
+	public void setNewList(List<PseudoPrimitiveTestClass> newList) {
+		this.newList = newList;
+	}
+	
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom.test;
+
+import de.inovex.jmom.annotations.GenerateCodec;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class with a generated codec. The fields cover direct access and fields,
+ * that can only be accessed with reflection. The final field is visible, but
+ * cannot be written by the generated code. The getter of name returns a default
+ * and the setter of tags copies the list, so using them instead of the fields
+ * would change the stored values.
+ * 
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+@GenerateCodec
+public class GeneratedCodecTestClass {
+	
+	int count;
+	protected boolean flag;
+	private String name;
+	private List<String> tags;
+	private double secret;
+	final int version;
+	
+	public GeneratedCodecTestClass() {
+		this.version = 0;
+	}
+
+	public GeneratedCodecTestClass(int count, boolean flag, String name, List<String> tags, double secret, int version) {
+		this.count = count;
+		this.flag = flag;
+		this.name = name;
+		this.tags = tags;
+		this.secret = secret;
+		this.version = version;
+	}
+
+	public String getName() {
+		return (name != null) ? name : "unnamed";
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public List<String> getTags() {
+		return tags;
+	}
+
+	public void setTags(List<String> tags) {
+		this.tags = new ArrayList<String>(tags);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		final GeneratedCodecTestClass other = (GeneratedCodecTestClass) obj;
+		if (this.count != other.count) {
+			return false;
+		}
+		if (this.flag != other.flag) {
+			return false;
+		}
+		if ((this.name == null) ? (other.name != null) : !this.name.equals(other.name)) {
+			return false;
+		}
+		if (this.tags != other.tags && (this.tags == null || !this.tags.equals(other.tags))) {
+			return false;
+		}
+		if (Double.doubleToLongBits(this.secret) != Double.doubleToLongBits(other.secret)) {
+			return false;
+		}
+		if (this.version != other.version) {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 5;
+		hash = 41 * hash + this.count;
+		hash = 41 * hash + (this.name != null ? this.name.hashCode() : 0);
+		return hash;
+	}
+	
+}
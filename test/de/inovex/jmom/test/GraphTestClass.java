@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 Tim Roes <tim.roes@inovex.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inovex.jmom.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Tim Roes <tim.roes@inovex.de>
+ */
+public class GraphTestClass {
+	
+	private int key;
+	private GraphTestClass next;
+	private List<GraphTestClass> children = new ArrayList<GraphTestClass>();
+
+	public GraphTestClass() {
+		
+	}
+
+	public GraphTestClass(int key) {
+		this.key = key;
+	}
+
+	public int getKey() {
+		return key;
+	}
+
+	public GraphTestClass getNext() {
+		return next;
+	}
+
+	public void setNext(GraphTestClass next) {
+		this.next = next;
+	}
+
+	public List<GraphTestClass> getChildren() {
+		return children;
+	}
+	
+}